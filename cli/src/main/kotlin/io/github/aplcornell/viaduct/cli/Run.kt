@@ -1,7 +1,9 @@
 package io.github.aplcornell.viaduct.cli
 
 import com.github.ajalt.clikt.core.CliktCommand
+import com.github.ajalt.clikt.core.UsageError
 import com.github.ajalt.clikt.parameters.arguments.argument
+import com.github.ajalt.clikt.parameters.options.flag
 import com.github.ajalt.clikt.parameters.options.multiple
 import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.options.pair
@@ -50,6 +52,31 @@ class Run : CliktCommand(help = "Run compiled protocol for a single host") {
         help = "Set port used by ABY",
     ).int()
 
+    val metricsFile: File? by option(
+        "--metrics",
+        help = "Write network traffic statistics to file as JSON",
+    ).file(canBeDir = false, mustExist = false)
+
+    val recordFile: File? by option(
+        "--record",
+        help = "Record messages received from other hosts to file",
+    ).file(canBeDir = false, mustExist = false)
+
+    val replayFile: File? by option(
+        "--replay",
+        help = "Run without other hosts by replaying messages recorded with --record",
+    ).file(canBeDir = false, mustExist = true)
+
+    val eagerReceive: Boolean by option(
+        "--eager-receive",
+        help = "Decode messages from other hosts as soon as they arrive",
+    ).flag()
+
+    val sharedLoopThread: Boolean by option(
+        "--shared-loop-thread",
+        help = "Run the message loops for all other hosts on a single thread (socket I/O still uses the I/O pool)",
+    ).flag()
+
     private fun getProtocolBackends(): List<ProtocolBackend> {
         return listOf(
             CleartextProtocolInterpreter,
@@ -74,7 +101,20 @@ class Run : CliktCommand(help = "Run compiled protocol for a single host") {
             ABYProtocolInterpreter.port = abyPort as Int
         }
 
-        val backend = ViaductBackend(getProtocolBackends(), connectionInfoMap)
+        if (recordFile != null && replayFile != null) {
+            throw UsageError("--record and --replay cannot be used together.")
+        }
+
+        val backend =
+            ViaductBackend(
+                getProtocolBackends(),
+                connectionInfoMap,
+                metricsFile,
+                recordFile,
+                replayFile,
+                eagerReceive,
+                sharedLoopThread,
+            )
 
         val strategy: Strategy =
             if (inputStrategy == null) {
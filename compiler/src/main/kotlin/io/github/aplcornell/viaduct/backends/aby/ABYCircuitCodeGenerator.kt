@@ -100,6 +100,8 @@ class ABYCircuitCodeGenerator(
                     "%L",
                     context.send(portVar, protocol.client),
                 )
+                // The client cannot connect until it has received the port.
+                builder.addStatement("%L", context.flushAll())
                 builder.addStatement("%L", abyParty(protocol, role, portVar))
                 builder.endControlFlow()
                 builder.build()
@@ -537,6 +539,8 @@ class ABYCircuitCodeGenerator(
             )
             CodeBlock.of("%N", outShareName)
         }
+        // The other party may need our buffered messages to get here.
+        builder.addStatement("%L", context.flushAll())
         builder.addStatement(
             "%L.execCircuit()",
             protocolToABYPartyMap[ABYPair(protocol.server, protocol.client)],
@@ -1,5 +1,6 @@
 package io.github.aplcornell.viaduct.backends.aby
 
+import com.squareup.kotlinpoet.BOOLEAN
 import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.INT
 import com.squareup.kotlinpoet.KModifier
@@ -61,6 +62,12 @@ import io.github.aplcornell.viaduct.syntax.values.IntegerValue
 import io.github.aplcornell.viaduct.syntax.values.Value
 import java.math.BigInteger
 
+private const val ABY_RUNTIME_PACKAGE = "io.github.aplcornell.viaduct.runtime.aby"
+
+private val obliviousIndexQueryMember = MemberName(ABY_RUNTIME_PACKAGE, "obliviousIndexQuery")
+private val obliviousUpdateSetMember = MemberName(ABY_RUNTIME_PACKAGE, "obliviousUpdateSet")
+private val obliviousUpdateModifyMember = MemberName(ABY_RUNTIME_PACKAGE, "obliviousUpdateModify")
+
 class ABYCodeGenerator(
     context: CodeGeneratorContext,
 ) : AbstractCodeGenerator(context) {
@@ -114,8 +121,10 @@ class ABYCodeGenerator(
 
                 abyPartyBuilder.addStatement(
                     "%L",
-                    context.send(CodeBlock.of(portVarName), (protocol as ABY).client),
+                    context.send(INT, CodeBlock.of(portVarName), (protocol as ABY).client),
                 )
+                // The client cannot connect until it has received the port.
+                abyPartyBuilder.addStatement("%L", context.flushAll())
 
                 abyPartyBuilder.addStatement("%L", abyParty(protocol, role, portVarName))
                 abyPartyBuilder.endControlFlow()
@@ -402,14 +411,15 @@ class ABYCodeGenerator(
                     ),
                 )
 
+            // ABY takes the selector last
             Mux ->
                 CodeBlock.of(
                     "%L.%L(%L, %L, %L)",
                     protocolToAbyPartyCircuit(protocol),
                     "putMUXGate",
-                    args.first(),
                     args[1],
-                    args.last(),
+                    args[2],
+                    args[0],
                 )
 
             ExclusiveOr ->
@@ -472,11 +482,11 @@ class ABYCodeGenerator(
                                 when (clearArgument(expr.arguments.first())) {
                                     false ->
                                         CodeBlock.of(
-                                            "%L(%L, %L)",
-                                            "secretIndexQuery",
+                                            "%L.%M(%L, %L)",
+                                            protocolToAbyPartyCircuit(protocol),
+                                            obliviousIndexQueryMember,
                                             exp(protocol, expr.arguments.first()),
                                             context.kotlinName(expr.variable.value),
-
                                         )
 
                                     true ->
@@ -522,9 +532,9 @@ class ABYCodeGenerator(
                     false -> when (stmt.update.value) {
                         is io.github.aplcornell.viaduct.syntax.datatypes.Set -> {
                             CodeBlock.of(
-                                "%N.%N(%L, %L, %L)",
+                                "%N.%M(%L, %L, %L)",
                                 context.kotlinName(stmt.variable.value),
-                                "secretUpdateSet",
+                                obliviousUpdateSetMember,
                                 protocolToAbyPartyCircuit(protocol),
                                 exp(protocol, stmt.arguments.first()),
                                 exp(protocol, stmt.arguments.last()),
@@ -533,9 +543,9 @@ class ABYCodeGenerator(
 
                         is Modify -> {
                             CodeBlock.of(
-                                "%N.%N(%N, %N, %L)",
+                                "%N.%M(%L, %L) { %L }",
                                 context.kotlinName(stmt.variable.value),
-                                "secretUpdateModify",
+                                obliviousUpdateModifyMember,
                                 protocolToAbyPartyCircuit(protocol),
                                 exp(protocol, stmt.arguments.first()),
                                 shareOfOperatorApplication(
@@ -665,7 +675,8 @@ class ABYCodeGenerator(
             outRole,
         )
 
-        // execute circuit
+        // execute circuit; the other party may need our buffered messages to get here
+        outBuilder.addStatement("%L", context.flushAll())
         outBuilder.addStatement(
             "%L.execCircuit()",
             protocolToABYPartyMap[ABYPair(sendProtocol.server, sendProtocol.client)],
@@ -677,6 +688,7 @@ class ABYCodeGenerator(
                     outBuilder.addStatement(
                         "%L",
                         context.send(
+                            BOOLEAN,
                             CodeBlock.of(
                                 "%L.getClearValue32().%M",
                                 outShareName,
@@ -690,6 +702,7 @@ class ABYCodeGenerator(
                     outBuilder.addStatement(
                         "%L",
                         context.send(
+                            INT,
                             CodeBlock.of("%L.getClearValue32().toInt()", outShareName),
                             event.recv.host,
                         ),
@@ -1,13 +1,19 @@
 package io.github.aplcornell.viaduct.backends.cleartext
 
+import com.squareup.kotlinpoet.BYTE_ARRAY
 import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.MemberName
 import io.github.aplcornell.viaduct.circuitcodegeneration.AbstractCodeGenerator
 import io.github.aplcornell.viaduct.circuitcodegeneration.Argument
 import io.github.aplcornell.viaduct.circuitcodegeneration.CodeGeneratorContext
 import io.github.aplcornell.viaduct.circuitcodegeneration.UnsupportedCommunicationException
+import io.github.aplcornell.viaduct.circuitcodegeneration.designatedReplica
+import io.github.aplcornell.viaduct.circuitcodegeneration.digestMember
+import io.github.aplcornell.viaduct.circuitcodegeneration.equivocationCheck
 import io.github.aplcornell.viaduct.circuitcodegeneration.receiveExpected
 import io.github.aplcornell.viaduct.circuitcodegeneration.receiveReplicated
+import io.github.aplcornell.viaduct.runtime.EquivocationCheck
+import io.github.aplcornell.viaduct.runtime.EquivocationException
 import io.github.aplcornell.viaduct.syntax.BinaryOperator
 import io.github.aplcornell.viaduct.syntax.Host
 import io.github.aplcornell.viaduct.syntax.Protocol
@@ -62,26 +68,47 @@ class CleartextCircuitCodeGenerator(context: CodeGeneratorContext) : AbstractCod
         require(context.host in receivers)
         val builder = CodeBlock.builder()
         val argType = storageType(argument.protocol, argument.type)
+        val check = argument.type.equivocationCheck
         val clearTextTemp = context.newTemporary("clearTextTemp")
         builder.addStatement(
             "val %L = %L",
             clearTextTemp,
-            receiveReplicated(argType, senders.toList(), context),
+            receiveReplicated(argType, senders.sorted(), check, context),
         )
         // Check other receiving hosts for equivocation
         val peers = receivers.filter { it != context.host }
         if (peers.isNotEmpty()) {
-            for (host in peers) builder.addStatement("%L", context.send(CodeBlock.of(clearTextTemp), host))
-            builder.addStatement(
-                "%L",
-                receiveExpected(
-                    CodeBlock.of(clearTextTemp),
-                    senders.first(),
-                    argType,
-                    peers,
-                    context,
-                ),
-            )
+            when (check) {
+                EquivocationCheck.FULL_VALUE -> {
+                    for (host in peers) builder.addStatement("%L", context.send(CodeBlock.of(clearTextTemp), host))
+                    builder.addStatement(
+                        "%L",
+                        receiveExpected(
+                            CodeBlock.of(clearTextTemp),
+                            senders.first(),
+                            argType,
+                            peers,
+                            context,
+                        ),
+                    )
+                }
+
+                EquivocationCheck.DIGEST -> {
+                    val digestTemp = context.newTemporary("digest")
+                    builder.addStatement("val %N = %M(%L)", digestTemp, digestMember, clearTextTemp)
+                    for (host in peers) builder.addStatement("%L", context.send(CodeBlock.of("%N", digestTemp), host))
+                    for (host in peers) {
+                        builder.addStatement(
+                            "%T.assertDigestEquals(%N, %L, %L, %L)",
+                            EquivocationException::class,
+                            digestTemp,
+                            context.codeOf(context.host),
+                            context.receive(BYTE_ARRAY, host),
+                            context.codeOf(host),
+                        )
+                    }
+                }
+            }
         }
         return Pair(builder.build(), CodeBlock.of(clearTextTemp))
     }
@@ -98,7 +125,18 @@ class CleartextCircuitCodeGenerator(context: CodeGeneratorContext) : AbstractCod
         val receivingHosts = target.hosts - source.hosts
         return when (context.host) {
             in source.hosts -> {
-                receivingHosts.forEach { builder.addStatement("%L", context.send(argument.value, it)) }
+                if (argument.type.equivocationCheck == EquivocationCheck.FULL_VALUE ||
+                    designatedReplica(source.hosts) == context.host
+                ) {
+                    receivingHosts.forEach { builder.addStatement("%L", context.send(argument.value, it)) }
+                } else if (receivingHosts.isNotEmpty()) {
+                    // Another replica sends the value itself
+                    val digestTemp = context.newTemporary("digest")
+                    builder.addStatement("val %N = %M(%L)", digestTemp, digestMember, argument.value)
+                    receivingHosts.forEach {
+                        builder.addStatement("%L", context.send(CodeBlock.of("%N", digestTemp), it))
+                    }
+                }
                 argument.value
             }
 
@@ -1,20 +1,26 @@
 package io.github.aplcornell.viaduct.backends.cleartext
 
+import com.squareup.kotlinpoet.BYTE_ARRAY
 import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.MemberName
 import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
 import com.squareup.kotlinpoet.asClassName
+import com.squareup.kotlinpoet.joinToCode
 import io.github.aplcornell.viaduct.analysis.NameAnalysis
 import io.github.aplcornell.viaduct.analysis.TypeAnalysis
 import io.github.aplcornell.viaduct.codegeneration.AbstractCodeGenerator
 import io.github.aplcornell.viaduct.codegeneration.CodeGeneratorContext
 import io.github.aplcornell.viaduct.codegeneration.UnsupportedOperatorException
+import io.github.aplcornell.viaduct.codegeneration.designatedReplica
+import io.github.aplcornell.viaduct.codegeneration.digestMember
 import io.github.aplcornell.viaduct.codegeneration.receiveReplicated
 import io.github.aplcornell.viaduct.codegeneration.typeTranslator
 import io.github.aplcornell.viaduct.codegeneration.valueClass
+import io.github.aplcornell.viaduct.runtime.EquivocationCheck
 import io.github.aplcornell.viaduct.runtime.EquivocationException
 import io.github.aplcornell.viaduct.runtime.commitment.Commitment
 import io.github.aplcornell.viaduct.runtime.commitment.Committed
+import io.github.aplcornell.viaduct.runtime.equivocationCheck
 import io.github.aplcornell.viaduct.selection.CommunicationEvent
 import io.github.aplcornell.viaduct.selection.ProtocolCommunication
 import io.github.aplcornell.viaduct.syntax.BinaryOperator
@@ -35,6 +41,8 @@ import io.github.aplcornell.viaduct.syntax.operators.Minimum
 import io.github.aplcornell.viaduct.syntax.types.MutableCellType
 import io.github.aplcornell.viaduct.syntax.types.VectorType
 
+private val openAllMember = MemberName("io.github.aplcornell.viaduct.runtime.commitment", "openAll")
+
 class CleartextCodeGenerator(context: CodeGeneratorContext) : AbstractCodeGenerator(context) {
     private val nameAnalysis = context.program.analyses.get<NameAnalysis>()
     private val typeAnalysis = context.program.analyses.get<TypeAnalysis>()
@@ -135,17 +143,50 @@ class CleartextCodeGenerator(context: CodeGeneratorContext) : AbstractCodeGenera
         if (sendProtocol != receiveProtocol) {
             val relevantEvents: Set<CommunicationEvent> =
                 events.getProjectionSends(ProtocolProjection(sendProtocol, context.host))
-            for (event in relevantEvents) {
-                if (sender.value is InputNode) {
+            if (relevantEvents.isNotEmpty()) {
+                val value =
+                    if (sender.value is InputNode) {
+                        CodeBlock.of("%N", context.kotlinName(sender.name.value, sendProtocol))
+                    } else {
+                        exp(sendProtocol, sender.value)
+                    }
+
+                val type = typeAnalysis.type(sender)
+
+                // receivers that get their copy from another replica only need our digest
+                val (fullReceivers, digestReceivers) =
+                    relevantEvents.partition { event ->
+                        type.equivocationCheck == EquivocationCheck.FULL_VALUE ||
+                            events.designatedReplica(event.recv) == context.host
+                    }
+
+                if (digestReceivers.isEmpty()) {
+                    // evaluate and encode the value once for all receivers
                     sendBuilder.addStatement(
                         "%L",
-                        context.send(
-                            CodeBlock.of("%N", context.kotlinName(sender.name.value, sendProtocol)),
-                            event.recv.host,
-                        ),
+                        context.broadcast(typeTranslator(type), value, fullReceivers.map { event -> event.recv.host }),
                     )
                 } else {
-                    sendBuilder.addStatement("%L", context.send(exp(sendProtocol, sender.value), event.recv.host))
+                    val sendTemp = context.newTemporary("sendTemp")
+                    sendBuilder.addStatement("val %N = %L", sendTemp, value)
+                    if (fullReceivers.isNotEmpty()) {
+                        sendBuilder.addStatement(
+                            "%L",
+                            context.broadcast(
+                                typeTranslator(type),
+                                CodeBlock.of("%N", sendTemp),
+                                fullReceivers.map { event -> event.recv.host },
+                            ),
+                        )
+                    }
+                    sendBuilder.addStatement(
+                        "%L",
+                        context.broadcast(
+                            BYTE_ARRAY,
+                            CodeBlock.of("%M(%N)", digestMember, sendTemp),
+                            digestReceivers.map { event -> event.recv.host },
+                        ),
+                    )
                 }
             }
         }
@@ -208,19 +249,54 @@ class CleartextCodeGenerator(context: CodeGeneratorContext) : AbstractCodeGenera
                             .filter { host -> host != context.host }
                             .sorted()
 
-                    for (host in hostsToCheckWith)
-                        receiveBuilder.addStatement("%L", context.send(CodeBlock.of(clearTextTemp), host))
-
-                    for (host in hostsToCheckWith) {
-                        receiveBuilder.addStatement(
-                            "%T.%N(%N, %L, %L, %L)",
-                            EquivocationException::class,
-                            "assertEquals",
-                            clearTextTemp,
-                            context.codeOf(cleartextInputs.first().send.host),
-                            context.receive(typeTranslator(typeAnalysis.type(sender)), host),
-                            context.codeOf(host),
-                        )
+                    when (typeAnalysis.type(sender).equivocationCheck) {
+                        EquivocationCheck.FULL_VALUE -> {
+                            for (host in hostsToCheckWith)
+                                receiveBuilder.addStatement(
+                                    "%L",
+                                    context.send(
+                                        typeTranslator(typeAnalysis.type(sender)),
+                                        CodeBlock.of(clearTextTemp),
+                                        host,
+                                    ),
+                                )
+
+                            for (host in hostsToCheckWith) {
+                                receiveBuilder.addStatement(
+                                    "%T.%N(%N, %L, %L, %L)",
+                                    EquivocationException::class,
+                                    "assertEquals",
+                                    clearTextTemp,
+                                    context.codeOf(cleartextInputs.first().send.host),
+                                    context.receive(typeTranslator(typeAnalysis.type(sender)), host),
+                                    context.codeOf(host),
+                                )
+                            }
+                        }
+
+                        // other receivers only need to compare digests
+                        EquivocationCheck.DIGEST -> if (hostsToCheckWith.isNotEmpty()) {
+                            val digestTemp = context.newTemporary("digest")
+                            receiveBuilder.addStatement("val %N = %M(%N)", digestTemp, digestMember, clearTextTemp)
+
+                            for (host in hostsToCheckWith)
+                                receiveBuilder.addStatement(
+                                    "%L",
+                                    context.send(BYTE_ARRAY, CodeBlock.of("%N", digestTemp), host),
+                                )
+
+                            for (host in hostsToCheckWith) {
+                                receiveBuilder.addStatement(
+                                    "%T.%N(%N, %L, %L, %L)",
+                                    EquivocationException::class,
+                                    "assertDigestEquals",
+                                    digestTemp,
+                                    context.codeOf(context.host),
+                                    context.receive(BYTE_ARRAY, host),
+                                    context.codeOf(host),
+                                )
+                            }
+                        }
                     }
                     receiveBuilder.addStatement(
                         "val %N = %N",
@@ -251,25 +327,22 @@ class CleartextCodeGenerator(context: CodeGeneratorContext) : AbstractCodeGenera
                         ),
                     )
 
-                    for (hashSendEvent in hashCommitmentInputs) {
-                        receiveBuilder.addStatement(
-                            "%L.%L(%N)",
-                            context.receive(
-                                Commitment::class.asClassName().parameterizedBy(
-                                    typeTranslator((typeAnalysis.type(sender))),
-                                ),
-                                hashSendEvent.send.host,
+                    val receivedCommitments = hashCommitmentInputs.map { hashSendEvent ->
+                        context.receive(
+                            Commitment::class.asClassName().parameterizedBy(
+                                typeTranslator((typeAnalysis.type(sender))),
                             ),
-                            "open",
-                            clearTextCommittedTemp,
+                            hashSendEvent.send.host,
                         )
                     }
 
+                    // hash the declassified value once and check it against every hash holder
                     receiveBuilder.addStatement(
-                        "val %N = %L.%N",
+                        "val %N = %M(%N, %L)",
                         context.kotlinName(sender.name.value, receiveProtocol),
+                        openAllMember,
                         clearTextCommittedTemp,
-                        "value",
+                        receivedCommitments.joinToCode(),
                     )
                 }
 
@@ -11,6 +11,7 @@ import io.github.aplcornell.viaduct.codegeneration.AbstractCodeGenerator
 import io.github.aplcornell.viaduct.codegeneration.CodeGeneratorContext
 import io.github.aplcornell.viaduct.codegeneration.receiveReplicated
 import io.github.aplcornell.viaduct.codegeneration.typeTranslator
+import io.github.aplcornell.viaduct.runtime.commitment.Commitment
 import io.github.aplcornell.viaduct.runtime.commitment.Committed
 import io.github.aplcornell.viaduct.selection.CommunicationEvent
 import io.github.aplcornell.viaduct.selection.ProtocolCommunication
@@ -22,6 +23,7 @@ import io.github.aplcornell.viaduct.syntax.intermediate.ExpressionNode
 import io.github.aplcornell.viaduct.syntax.intermediate.LetNode
 import io.github.aplcornell.viaduct.syntax.intermediate.LiteralNode
 import io.github.aplcornell.viaduct.syntax.types.ValueType
+import io.github.aplcornell.viaduct.backends.commitment.Commitment as CommitmentProtocol
 
 internal class CommitmentCreatorGenerator(
     context: CodeGeneratorContext,
@@ -57,13 +59,14 @@ internal class CommitmentCreatorGenerator(
             val relevantEvents: Set<CommunicationEvent> =
                 events.getProjectionSends(ProtocolProjection(sendProtocol, context.host))
 
-            for (event in relevantEvents) {
+            if (relevantEvents.isNotEmpty()) {
                 // send temporary containing hash value
                 sendBuilder.addStatement(
                     "%L",
-                    context.send(
+                    context.broadcast(
+                        kotlinType(sendProtocol, typeAnalysis.type(sender)),
                         CodeBlock.of("%N", context.kotlinName(sender.name.value, sendProtocol)),
-                        event.recv.host,
+                        relevantEvents.map { event -> event.recv.host },
                     ),
                 )
             }
@@ -79,15 +82,15 @@ internal class CommitmentCreatorGenerator(
     ): CodeBlock {
         val receiveBuilder = CodeBlock.builder()
         val projection = ProtocolProjection(receiveProtocol, context.host)
-        val hashHosts: Set<Host> = (projection.protocol as Commitment).hashHosts
+        val hashHosts: Set<Host> = (projection.protocol as CommitmentProtocol).hashHosts
         val commitmentTemp = context.newTemporary("commitment")
         if (sendProtocol != receiveProtocol) {
             when {
-                events.any { event -> event.recv.id == Commitment.CLEARTEXT_INPUT } -> {
+                events.any { event -> event.recv.id == CommitmentProtocol.CLEARTEXT_INPUT } -> {
                     val relevantEvents =
                         events.getHostReceives(
                             projection.host,
-                            Commitment.CLEARTEXT_INPUT,
+                            CommitmentProtocol.CLEARTEXT_INPUT,
                         )
 
                     if (relevantEvents.isNotEmpty()) {
@@ -108,7 +111,7 @@ internal class CommitmentCreatorGenerator(
                     val cleartextInputEvents =
                         events.getProjectionReceives(
                             projection,
-                            Commitment.INPUT,
+                            CommitmentProtocol.INPUT,
                         )
 
                     receiveBuilder.addStatement(
@@ -131,15 +134,18 @@ internal class CommitmentCreatorGenerator(
                         MemberName(Committed.Companion::class.asClassName(), "commitment"),
                     )
 
-                    for (hashHost in hashHosts) {
+                    if (hashHosts.isNotEmpty()) {
                         receiveBuilder.addStatement(
                             "%L",
-                            context.send(
+                            context.broadcast(
+                                Commitment::class.asClassName().parameterizedBy(
+                                    typeTranslator(typeAnalysis.type(sender)),
+                                ),
                                 CodeBlock.of(
                                     "%L",
                                     commitmentTemp,
                                 ),
-                                hashHost,
+                                hashHosts.toList(),
                             ),
                         )
                     }
@@ -59,12 +59,13 @@ internal class CommitmentHolderGenerator(
                 CommitmentProtocol.OPEN_COMMITMENT_OUTPUT,
             ).toList()
 
-        for (event in relevantEvents) {
+        if (relevantEvents.isNotEmpty()) {
             sendBuilder.addStatement(
                 "%L",
-                context.send(
+                context.broadcast(
+                    kotlinType(sendProtocol, typeAnalysis.type(sender)),
                     CodeBlock.of("%N", context.kotlinName(sender.name.value, sendProtocol)),
-                    event.recv.host,
+                    relevantEvents.map { event -> event.recv.host },
                 ),
             )
         }
@@ -311,6 +311,8 @@ private class BackendCodeGenerator(
             return CodeBlock.of("%N.%M(%L, %L)", "runtime", sendMember, value, codeOf(receiver))
         }
 
+        override fun flushAll(): CodeBlock = CodeBlock.of("%N.flushAll()", "runtime")
+
         override fun url(host: Host): CodeBlock = CodeBlock.of("%N.url(%L)", "runtime", codeOf(host))
     }
 }
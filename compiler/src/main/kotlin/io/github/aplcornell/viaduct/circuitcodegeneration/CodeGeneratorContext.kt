@@ -25,6 +25,12 @@ interface CodeGeneratorContext {
     /** Returns code that will send [value] to [receiver]. */
     fun send(value: CodeBlock, receiver: Host): CodeBlock
 
+    /**
+     * Returns code that will write out all messages sent so far.
+     * Sent messages may be buffered until the next receive, so this must precede any other blocking operation.
+     */
+    fun flushAll(): CodeBlock
+
     /** Returns code that will evaluate to the address of [host]. */
     fun url(host: Host): CodeBlock
 }
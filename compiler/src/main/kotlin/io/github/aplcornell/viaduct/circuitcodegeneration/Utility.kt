@@ -1,6 +1,7 @@
 package io.github.aplcornell.viaduct.circuitcodegeneration
 
 import com.squareup.kotlinpoet.BOOLEAN
+import com.squareup.kotlinpoet.BYTE_ARRAY
 import com.squareup.kotlinpoet.ClassName
 import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.INT
@@ -11,9 +12,13 @@ import com.squareup.kotlinpoet.STRING
 import com.squareup.kotlinpoet.TypeName
 import com.squareup.kotlinpoet.U_BYTE_ARRAY
 import io.github.aplcornell.viaduct.group
+import io.github.aplcornell.viaduct.runtime.EquivocationCheck
 import io.github.aplcornell.viaduct.runtime.EquivocationException
+import io.github.aplcornell.viaduct.runtime.equivocationCheckFor
+import io.github.aplcornell.viaduct.runtime.maxEncodedSize
 import io.github.aplcornell.viaduct.syntax.Arguments
 import io.github.aplcornell.viaduct.syntax.Host
+import io.github.aplcornell.viaduct.syntax.circuit.ArrayTypeNode
 import io.github.aplcornell.viaduct.syntax.circuit.IndexExpressionNode
 import io.github.aplcornell.viaduct.syntax.circuit.IndexParameterNode
 import io.github.aplcornell.viaduct.syntax.circuit.LiteralNode
@@ -23,6 +28,7 @@ import io.github.aplcornell.viaduct.syntax.types.ByteVecType
 import io.github.aplcornell.viaduct.syntax.types.IntegerType
 import io.github.aplcornell.viaduct.syntax.types.StringType
 import io.github.aplcornell.viaduct.syntax.types.ValueType
+import io.github.aplcornell.viaduct.syntax.values.IntegerValue
 import io.github.aplcornell.viaduct.syntax.values.Value
 import kotlin.reflect.KClass
 
@@ -40,6 +46,9 @@ val runtimePackage = "${group.replace("-", "")}.runtime"
 val findAvailableTcpPort: CodeBlock =
     CodeBlock.of("%M()", MemberName(runtimePackage, "findAvailableTcpPort"))
 
+/** The runtime function that computes digests of values. */
+val digestMember = MemberName(runtimePackage, "digest")
+
 /** Returns the [KClass] object for values of this type. */
 val ValueType.valueClass: KClass<out Value>
     get() = this.defaultValue::class
@@ -157,9 +166,61 @@ fun CodeBlock.forEachIndexed(
     return builder.build()
 }
 
+/** Returns how replicated values of this type are checked for equivocation. */
+val ArrayTypeNode.equivocationCheck: EquivocationCheck
+    get() {
+        val size = shape.fold(elementType.value.maxEncodedSize) { size, dimension ->
+            val length = ((dimension as? LiteralNode)?.value as? IntegerValue)?.value
+            if (size == null || length == null) null else size * length
+        }
+        return equivocationCheckFor(size)
+    }
+
+/**
+ * Returns the replica among [senders] that sends the full value when digests are used.
+ * Both ends must agree on this choice.
+ */
+fun designatedReplica(senders: Collection<Host>): Host =
+    senders.min()
+
 /** Code for the replicated value being received from [senders], along with associated equivocation checks. */
-fun receiveReplicated(type: TypeName, senders: List<Host>, context: CodeGeneratorContext) =
-    receiveExpected(context.receive(type, senders.first()), senders.first(), type, senders.drop(1), context)
+fun receiveReplicated(type: TypeName, senders: List<Host>, check: EquivocationCheck, context: CodeGeneratorContext) =
+    when (check) {
+        EquivocationCheck.FULL_VALUE ->
+            receiveExpected(context.receive(type, senders.first()), senders.first(), type, senders.drop(1), context)
+
+        EquivocationCheck.DIGEST -> {
+            val designated = designatedReplica(senders)
+            receiveExpectedDigest(context.receive(type, designated), designated, senders - designated, context)
+        }
+    }
+
+/** Code for receiving digests from [senders] expected to match the digest of [expectedValue]. */
+fun receiveExpectedDigest(
+    expectedValue: CodeBlock,
+    expectedValueProvider: Host,
+    senders: List<Host>,
+    context: CodeGeneratorContext,
+): CodeBlock {
+    if (senders.isEmpty()) return expectedValue
+
+    val builder = CodeBlock.builder()
+    val digestTemp = context.newTemporary("digest")
+    builder.beginControlFlow("%L.also", expectedValue)
+    builder.add("val %N = %M(it)\n", digestTemp, digestMember)
+    for (host in senders) {
+        builder.add(
+            "%T.assertDigestEquals(%N, %L, %L, %L)\n",
+            EquivocationException::class,
+            digestTemp,
+            context.codeOf(expectedValueProvider),
+            context.receive(BYTE_ARRAY, host),
+            context.codeOf(host),
+        )
+    }
+    builder.endControlFlow()
+    return builder.build()
+}
 
 /** Code for receiving values from [senders] expected to match [expectedValue]. */
 fun receiveExpected(
@@ -17,6 +17,8 @@ import io.github.aplcornell.viaduct.analysis.NameAnalysis
 import io.github.aplcornell.viaduct.analysis.ProtocolAnalysis
 import io.github.aplcornell.viaduct.analysis.TypeAnalysis
 import io.github.aplcornell.viaduct.analysis.mainFunction
+import io.github.aplcornell.viaduct.runtime.NetworkBroadcast
+import io.github.aplcornell.viaduct.runtime.NetworkChannel
 import io.github.aplcornell.viaduct.runtime.Out
 import io.github.aplcornell.viaduct.runtime.ViaductGeneratedProgram
 import io.github.aplcornell.viaduct.runtime.ViaductRuntime
@@ -86,14 +88,20 @@ private class BackendCodeGenerator(
                 .build(),
         )
 
-        for (protocol in protocolAnalysis.participatingProtocols(program)) {
-            for (property in codeGenerator.setup(protocol)) {
-                classBuilder.addProperty(property)
-            }
+        val setupProperties = protocolAnalysis.participatingProtocols(program).flatMap { codeGenerator.setup(it) }
+        val functions = program.functions.map { generate(it) }
+
+        // Channels are declared first since setup code may communicate.
+        for (channel in context.channels) {
+            classBuilder.addProperty(channel)
+        }
+
+        for (property in setupProperties) {
+            classBuilder.addProperty(property)
         }
 
-        for (function in program.functions) {
-            classBuilder.addFunction(generate(function)).build()
+        for (function in functions) {
+            classBuilder.addFunction(function)
         }
         return classBuilder.build()
     }
@@ -352,8 +360,19 @@ private class BackendCodeGenerator(
 
         private var selfSends: Queue<String> = LinkedList()
 
-        private val receiveMember = MemberName(ViaductRuntime::class.java.packageName, "receive")
-        private val sendMember = MemberName(ViaductRuntime::class.java.packageName, "send")
+        private val channelMember = MemberName(ViaductRuntime::class.java.packageName, "channel")
+
+        private val broadcastChannelMember = MemberName(ViaductRuntime::class.java.packageName, "broadcastChannel")
+
+        /** Network channels used by this host, keyed by message type and peer. */
+        private val channelMap: MutableMap<Pair<TypeName, Host>, PropertySpec> = mutableMapOf()
+
+        /** Broadcast channels used by this host, keyed by message type and receivers. */
+        private val broadcastMap: MutableMap<Pair<TypeName, List<Host>>, PropertySpec> = mutableMapOf()
+
+        /** Declarations for all channels requested so far. */
+        val channels: Collection<PropertySpec>
+            get() = channelMap.values + broadcastMap.values
 
         private val freshNameGenerator: FreshNameGenerator = FreshNameGenerator().apply {
             this.getFreshName("runtime")
@@ -380,22 +399,80 @@ private class BackendCodeGenerator(
         override fun codeOf(host: Host) =
             hostDeclarations.reference(host)
 
+        /** Returns the channel for exchanging values of type [type] with [peer], declaring it if necessary. */
+        private fun channel(type: TypeName, peer: Host): PropertySpec =
+            channelMap.getOrPut(Pair(type, peer)) {
+                PropertySpec.builder(
+                    newTemporary("${peer.name}Channel"),
+                    NetworkChannel::class.asClassName().parameterizedBy(type),
+                ).initializer(
+                    "%N.%M<%T>(%L)",
+                    "runtime",
+                    channelMember,
+                    type,
+                    codeOf(peer),
+                ).addModifiers(KModifier.PRIVATE).build()
+            }
+
+        /** Returns the channel for sending values of type [type] to all [receivers], declaring it if necessary. */
+        private fun broadcastChannel(type: TypeName, receivers: List<Host>): PropertySpec =
+            broadcastMap.getOrPut(Pair(type, receivers)) {
+                PropertySpec.builder(
+                    newTemporary("broadcast"),
+                    NetworkBroadcast::class.asClassName().parameterizedBy(type),
+                ).initializer(
+                    "%N.%M<%T>(%L)",
+                    "runtime",
+                    broadcastChannelMember,
+                    type,
+                    receivers.map { codeOf(it) }.joinToCode(),
+                ).addModifiers(KModifier.PRIVATE).build()
+            }
+
         override fun receive(type: TypeName, sender: Host): CodeBlock =
             if (sender == context.host) {
                 CodeBlock.of("%L", selfSends.remove())
             } else {
-                CodeBlock.of("%N.%M<%T>(%L)", "runtime", receiveMember, type, codeOf(sender))
+                CodeBlock.of("%N.receive()", channel(type, sender))
             }
 
-        override fun send(value: CodeBlock, receiver: Host): CodeBlock =
+        override fun send(type: TypeName, value: CodeBlock, receiver: Host): CodeBlock =
             if (receiver == context.host) {
                 val sendTemp = newTemporary("sendTemp")
                 selfSends.add(sendTemp)
                 CodeBlock.of("val %N = %L", sendTemp, value)
             } else {
-                CodeBlock.of("%N.%M(%L, %L)", "runtime", sendMember, value, codeOf(receiver))
+                CodeBlock.of("%N.send(%L)", channel(type, receiver), value)
             }
 
+        override fun broadcast(type: TypeName, value: CodeBlock, receivers: List<Host>): CodeBlock {
+            val remoteReceivers = receivers.filter { it != context.host }.sorted()
+            val selfSendCount = receivers.size - remoteReceivers.size
+
+            val remoteChannel: PropertySpec? =
+                when {
+                    remoteReceivers.isEmpty() -> null
+                    remoteReceivers.size == 1 -> channel(type, remoteReceivers.single())
+                    else -> broadcastChannel(type, remoteReceivers)
+                }
+
+            return if (selfSendCount == 0) {
+                CodeBlock.of("%N.send(%L)", remoteChannel!!, value)
+            } else {
+                // Every self-receive reads the same temporary.
+                val sendTemp = newTemporary("sendTemp")
+                repeat(selfSendCount) { selfSends.add(sendTemp) }
+                if (remoteChannel == null) {
+                    CodeBlock.of("val %N = %L", sendTemp, value)
+                } else {
+                    CodeBlock.of("val %N = (%L).also(%N::send)", sendTemp, value, remoteChannel)
+                }
+            }
+        }
+
+        override fun flushAll(): CodeBlock =
+            CodeBlock.of("%N.flushAll()", "runtime")
+
         override fun url(host: Host): CodeBlock =
             CodeBlock.of("%N.url(%L)", "runtime", codeOf(host))
     }
@@ -28,8 +28,21 @@ interface CodeGeneratorContext {
     /** Returns code that will receive a value of type [type] from [sender]. */
     fun receive(type: TypeName, sender: Host): CodeBlock
 
-    /** Returns code that will send [value] to [receiver]. */
-    fun send(value: CodeBlock, receiver: Host): CodeBlock
+    /** Returns code that will send [value] of type [type] to [receiver]. */
+    fun send(type: TypeName, value: CodeBlock, receiver: Host): CodeBlock
+
+    /**
+     * Returns code that will evaluate [value] once and send it to each host in [receivers].
+     * The value is encoded once and shared by all remote receivers.
+     * [receivers] may include this host, and may list a host more than once to send it several copies.
+     */
+    fun broadcast(type: TypeName, value: CodeBlock, receivers: List<Host>): CodeBlock
+
+    /**
+     * Returns code that will write out all messages sent so far.
+     * Sent messages may be buffered until the next receive, so this must precede any other blocking operation.
+     */
+    fun flushAll(): CodeBlock
 
     /** Returns code that will evaluate to the address of [host]. */
     fun url(host: Host): CodeBlock
@@ -1,13 +1,20 @@
 package io.github.aplcornell.viaduct.codegeneration
 
 import com.squareup.kotlinpoet.BOOLEAN
+import com.squareup.kotlinpoet.BYTE_ARRAY
 import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.INT
+import com.squareup.kotlinpoet.MemberName
 import com.squareup.kotlinpoet.STRING
 import com.squareup.kotlinpoet.TypeName
 import com.squareup.kotlinpoet.U_BYTE_ARRAY
 import io.github.aplcornell.viaduct.analysis.TypeAnalysis
+import io.github.aplcornell.viaduct.runtime.EquivocationCheck
+import io.github.aplcornell.viaduct.runtime.EquivocationException
+import io.github.aplcornell.viaduct.runtime.equivocationCheck
 import io.github.aplcornell.viaduct.selection.CommunicationEvent
+import io.github.aplcornell.viaduct.syntax.Host
+import io.github.aplcornell.viaduct.syntax.InputPort
 import io.github.aplcornell.viaduct.syntax.intermediate.LetNode
 import io.github.aplcornell.viaduct.syntax.types.BooleanType
 import io.github.aplcornell.viaduct.syntax.types.ByteVecType
@@ -30,42 +37,65 @@ fun typeTranslator(viaductType: ValueType): TypeName =
         else -> throw IllegalArgumentException("Cannot convert ${viaductType.toDocument().print()} to Kotlin type.")
     }
 
+/**
+ * Returns the replica that sends the full value to [receiver] when digests are used; the others send digests.
+ * A receiver that holds a replica itself uses its own copy.
+ */
+fun Iterable<CommunicationEvent>.designatedReplica(receiver: InputPort): Host {
+    val replicas = this.filter { it.recv == receiver }.map { it.send.host }
+    return if (receiver.host in replicas) receiver.host else replicas.min()
+}
+
+/** Code for the replicated value received through [events], along with associated equivocation checks. */
 fun receiveReplicated(
     sender: LetNode,
     events: Set<CommunicationEvent>,
     context: CodeGeneratorContext,
     typeAnalysis: TypeAnalysis,
 ): CodeBlock {
-    val receiveExpression = CodeBlock.builder()
-    val it = events.iterator()
-
-    if (events.size > 1) {
-        receiveExpression.beginControlFlow(
-            "%L.also",
-            context.receive(typeTranslator(typeAnalysis.type(sender)), it.next().send.host),
-        )
-    } else {
-        receiveExpression.add(
-            "%L",
-            context.receive(typeTranslator(typeAnalysis.type(sender)), it.next().send.host),
-        )
-        return receiveExpression.build()
+    val type = typeAnalysis.type(sender)
+    val kotlinType = typeTranslator(type)
+    val senders = events.map { it.send.host }.sorted()
+    if (senders.size == 1) {
+        return context.receive(kotlinType, senders.single())
     }
 
-// check to make sure that you got the same data from all hosts
-    while (it.hasNext()) {
-        val currentEvent = it.next()
-        receiveExpression.add(
-            "%N(%N, %L)",
-            "assertEquals",
-            "it",
-            events.first().send.host,
-            context.receive(typeTranslator(typeAnalysis.type(sender)), currentEvent.send.host),
-            currentEvent.send.host,
-        )
-    }
+    val receiveExpression = CodeBlock.builder()
+    when (type.equivocationCheck) {
+        EquivocationCheck.FULL_VALUE -> {
+            receiveExpression.beginControlFlow("%L.also", context.receive(kotlinType, senders.first()))
+            for (host in senders.drop(1)) {
+                receiveExpression.addStatement(
+                    "%T.assertEquals(it, %L, %L, %L)",
+                    EquivocationException::class,
+                    context.codeOf(senders.first()),
+                    context.receive(kotlinType, host),
+                    context.codeOf(host),
+                )
+            }
+        }
 
+        EquivocationCheck.DIGEST -> {
+            val designated = events.designatedReplica(events.first().recv)
+            val digestTemp = context.newTemporary("digest")
+            receiveExpression.beginControlFlow("%L.also", context.receive(kotlinType, designated))
+            receiveExpression.addStatement("val %N = %M(it)", digestTemp, digestMember)
+            for (host in senders.filter { it != designated }) {
+                receiveExpression.addStatement(
+                    "%T.assertDigestEquals(%N, %L, %L, %L)",
+                    EquivocationException::class,
+                    digestTemp,
+                    context.codeOf(designated),
+                    context.receive(BYTE_ARRAY, host),
+                    context.codeOf(host),
+                )
+            }
+        }
+    }
     receiveExpression.endControlFlow()
 
     return receiveExpression.build()
 }
+
+/** The runtime function that computes digests of values. */
+val digestMember = MemberName("io.github.aplcornell.viaduct.runtime", "digest")
@@ -63,6 +63,28 @@ kotlin.sourceSets.main {
     kotlin.srcDir(generateViaductProgramList.map { it.outputDirectory })
 }
 
+/** Benchmarks */
+
+// Only programs whose traffic goes entirely through a NetworkStrategy can be emulated in process.
+// ABY opens its own connections, so the ABY benchmarks in `benchmarks/compiled` are still run by
+// `benchmarks/benchmark.py` with traffic shaped by `benchmarks/scripts/settraffic` instead.
+val benchmark: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations.named(benchmark.implementationConfigurationName) {
+    extendsFrom(configurations.implementation.get())
+}
+
+val benchmarkNetworkProfiles by tasks.registering(JavaExec::class) {
+    group = "verification"
+    description = "Runs the example programs in process under emulated LAN and WAN conditions."
+    classpath = benchmark.runtimeClasspath
+    mainClass.set("$mainPackage.benchmark.NetworkBenchmarkKt")
+    args(layout.projectDirectory.dir("inputs").asFile.path)
+}
+
 abstract class GenerateViaductProgramList : DefaultTask() {
     @get:InputDirectory
     abstract val sourceDirectory: DirectoryProperty
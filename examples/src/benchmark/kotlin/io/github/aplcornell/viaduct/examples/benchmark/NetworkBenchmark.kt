@@ -0,0 +1,63 @@
+package io.github.aplcornell.viaduct.examples.benchmark
+
+import io.github.aplcornell.viaduct.examples.viaductPrograms
+import io.github.aplcornell.viaduct.runtime.NetworkProfile
+import io.github.aplcornell.viaduct.runtime.NetworkStrategy
+import io.github.aplcornell.viaduct.runtime.ScannerIOStrategy
+import io.github.aplcornell.viaduct.runtime.ViaductGeneratedProgram
+import io.github.aplcornell.viaduct.runtime.runInProcess
+import io.github.aplcornell.viaduct.syntax.Host
+import java.io.File
+import java.io.StringWriter
+import java.util.Scanner
+
+private val networkProfiles = listOf("LAN" to NetworkProfile.LAN, "WAN" to NetworkProfile.WAN)
+
+/**
+ * Runs every example program under each network profile and prints one CSV row per host.
+ *
+ * The emulator only shapes traffic that goes through a [NetworkStrategy], which ABY bypasses,
+ * so examples that use ABY are skipped.
+ * The ABY benchmarks are run by `benchmarks/benchmark.py` with `benchmarks/scripts/settraffic` instead.
+ *
+ * Usage: `NetworkBenchmark INPUTS_DIRECTORY [ITERATIONS]`
+ */
+fun main(args: Array<String>) {
+    val inputsDirectory = File(args.getOrElse(0) { "inputs" })
+    val iterations = args.getOrNull(1)?.toInt() ?: 1
+
+    println("Benchmark,Network,Iteration,Host,Running Time (s),Communication (MB)")
+    for (program in viaductPrograms.filter { !usesABY(it) }) {
+        val benchmark = program::class.simpleName!!
+
+        for ((networkName, networkProfile) in networkProfiles) {
+            for (iteration in 1..iterations) {
+                val reports = runBenchmark(program, networkProfile) { host ->
+                    inputFile(inputsDirectory, program, host)
+                }
+                for (report in reports.values.sortedBy { it.host }) {
+                    val seconds = report.wallTime.inWholeMicroseconds / 1_000_000.0
+                    val megabytes = (report.bytesSent + report.bytesReceived) / 1024.0 / 1024.0
+                    println("$benchmark,$networkName,$iteration,${report.host.name},$seconds,$megabytes")
+                }
+            }
+        }
+    }
+}
+
+/** Mirrors the filter in `ViaductProgramProvider`. */
+private fun usesABY(program: ViaductGeneratedProgram): Boolean =
+    program::class.qualifiedName!!.contains("aby")
+
+private fun runBenchmark(program: ViaductGeneratedProgram, networkProfile: NetworkProfile, inputs: (Host) -> File) =
+    program.hosts.associateWith { Scanner(inputs(it)) }.let { scanners ->
+        try {
+            program.runInProcess(networkProfile) { host -> ScannerIOStrategy(scanners.getValue(host), StringWriter()) }
+        } finally {
+            scanners.values.forEach { it.close() }
+        }
+    }
+
+/** Mirrors the input lookup in `RunExamplesTest`. */
+private fun inputFile(inputsDirectory: File, program: ViaductGeneratedProgram, host: Host): File =
+    inputsDirectory.resolve("${program::class.qualifiedName!!.replace(".", File.separator)}-${host.name}.txt")
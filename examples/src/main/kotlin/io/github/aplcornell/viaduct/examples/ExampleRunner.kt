@@ -6,20 +6,34 @@ import com.github.ajalt.clikt.core.subcommands
 import com.github.ajalt.clikt.parameters.arguments.argument
 import com.github.ajalt.clikt.parameters.options.associate
 import com.github.ajalt.clikt.parameters.options.counted
+import com.github.ajalt.clikt.parameters.options.default
+import com.github.ajalt.clikt.parameters.options.flag
 import com.github.ajalt.clikt.parameters.options.option
 import com.github.ajalt.clikt.parameters.options.validate
 import com.github.ajalt.clikt.parameters.options.versionOption
+import com.github.ajalt.clikt.parameters.types.choice
 import com.github.ajalt.clikt.parameters.types.file
 import io.github.aplcornell.viaduct.runtime.CombinedRuntime
+import io.github.aplcornell.viaduct.runtime.InstrumentedNetworkStrategy
+import io.github.aplcornell.viaduct.runtime.NIONetworkStrategy
+import io.github.aplcornell.viaduct.runtime.NetworkProfile
+import io.github.aplcornell.viaduct.runtime.NetworkStrategy
+import io.github.aplcornell.viaduct.runtime.RecordingNetworkStrategy
+import io.github.aplcornell.viaduct.runtime.ReplayNetworkStrategy
+import io.github.aplcornell.viaduct.runtime.RuntimeMetrics
 import io.github.aplcornell.viaduct.runtime.ScannerIOStrategy
+import io.github.aplcornell.viaduct.runtime.SharedMemoryNetworkStrategy
 import io.github.aplcornell.viaduct.runtime.TCPNetworkStrategy
 import io.github.aplcornell.viaduct.runtime.ViaductGeneratedProgram
+import io.github.aplcornell.viaduct.runtime.runInProcess
 import io.github.aplcornell.viaduct.syntax.Host
 import io.github.aplcornell.viaduct.version
 import mu.KotlinLogging
 import org.apache.logging.log4j.Level
 import org.apache.logging.log4j.core.config.Configurator
+import java.io.Closeable
 import java.io.File
+import java.io.StringWriter
 import java.net.InetSocketAddress
 import java.util.Scanner
 import kotlin.system.exitProcess
@@ -55,7 +69,7 @@ private class ExampleRunner : NoOpCliktCommand(help = "Run compiled Viaduct prog
 
     init {
         versionOption(version)
-        subcommands(List(), Run())
+        subcommands(List(), Run(), RunAll())
     }
 }
 
@@ -96,6 +110,39 @@ private class Run : CliktCommand(help = "Run a compiled program for a single hos
         help = "Associate each host with its address",
     ).associate()
 
+    val transport: String by option(
+        "--transport",
+        help = """
+            Connect to other hosts with blocking sockets (tcp), a single selector thread (nio),
+            or shared memory for hosts on the same machine and TCP for the rest (shm)
+        """,
+    ).choice("tcp", "nio", "shm").default("tcp")
+
+    val ringDirectory: File by option(
+        "--ring-directory",
+        help = "Directory for the shared memory rings of --transport shm",
+    ).file(canBeFile = false).default(File(System.getProperty("java.io.tmpdir"), "viaduct-rings"))
+
+    val compress: Boolean by option(
+        "--compress",
+        help = "Compress large messages to hosts that also enable compression (tcp only)",
+    ).flag()
+
+    val metricsFile: File? by option(
+        "--metrics",
+        help = "Write network traffic statistics to file as JSON",
+    ).file(canBeDir = false)
+
+    val recordFile: File? by option(
+        "--record",
+        help = "Record messages received from other hosts to file",
+    ).file(canBeDir = false)
+
+    val replayFile: File? by option(
+        "--replay",
+        help = "Run without other hosts by replaying messages recorded with --record",
+    ).file(canBeDir = false, mustExist = true)
+
     override fun run() {
         val program = generatedPrograms[programName]
             ?: throw Error("Program $programName does not exist.")
@@ -106,6 +153,14 @@ private class Run : CliktCommand(help = "Run a compiled program for a single hos
             throw Error("Program $programName does not have host $hostName.")
         }
 
+        if (recordFile != null && replayFile != null) {
+            throw Error("--record and --replay cannot be used together.")
+        }
+
+        if (compress && transport != "tcp") {
+            throw Error("--compress is only supported with --transport tcp.")
+        }
+
         val hostConnectionInfo: Map<Host, InetSocketAddress> =
             if (hostAddresses.size < program.hosts.size) {
                 program.hosts
@@ -126,11 +181,85 @@ private class Run : CliktCommand(help = "Run a compiled program for a single hos
         }
 
         (inputFile?.let { Scanner(it) } ?: Scanner(System.`in`)).use { scanner ->
-            TCPNetworkStrategy(host, hostConnectionInfo).use { networkStrategy ->
-                networkStrategy.start()
-                val runtime = CombinedRuntime(ScannerIOStrategy(scanner), networkStrategy)
+            fun runWith(networkStrategy: NetworkStrategy) {
+                val metrics = RuntimeMetrics(host)
+                val network =
+                    if (metricsFile == null) networkStrategy else InstrumentedNetworkStrategy(networkStrategy, metrics)
+                val runtime = CombinedRuntime(ScannerIOStrategy(scanner), network)
                 program.main(host, runtime)
+                metricsFile?.let { metrics.writeJson(it) }
+            }
+
+            val replayFile = replayFile
+            val recordFile = recordFile
+
+            fun <N> runOver(networkStrategy: N, start: N.() -> Unit) where N : NetworkStrategy, N : Closeable {
+                networkStrategy.use {
+                    it.start()
+                    if (recordFile == null) {
+                        runWith(it)
+                    } else {
+                        RecordingNetworkStrategy(it, recordFile).use { recording -> runWith(recording) }
+                    }
+                }
             }
+
+            when {
+                replayFile != null ->
+                    ReplayNetworkStrategy(replayFile, hostConnectionInfo).use { runWith(it) }
+
+                transport == "nio" ->
+                    runOver(NIONetworkStrategy(host, hostConnectionInfo)) { start() }
+
+                transport == "shm" ->
+                    runOver(SharedMemoryNetworkStrategy(host, hostConnectionInfo, ringDirectory.toPath())) { start() }
+
+                else ->
+                    runOver(TCPNetworkStrategy(host, hostConnectionInfo, compression = compress)) { start() }
+            }
+        }
+    }
+}
+
+private class RunAll : CliktCommand(help = "Run all hosts of a compiled program in this process and report traffic.") {
+    private val programName by argument(
+        "PROGRAM",
+        help = "Program to run",
+    )
+
+    val inputFiles: Map<String, String> by option(
+        "-i",
+        "--input",
+        help = "Associate each host with a file to stream its inputs from",
+    ).associate()
+
+    val networkProfile: NetworkProfile? by option(
+        "-n",
+        "--network",
+        help = "Emulate the latency and bandwidth of a local or wide area network between hosts (does not apply to ABY traffic)",
+    ).choice("lan" to NetworkProfile.LAN, "wan" to NetworkProfile.WAN)
+
+    override fun run() {
+        val program = generatedPrograms[programName]
+            ?: throw Error("Program $programName does not exist.")
+
+        val scanners = program.hosts.associateWith { host ->
+            inputFiles[host.name]?.let { Scanner(File(it)) } ?: Scanner("")
+        }
+        val outputs = program.hosts.associateWith { StringWriter() }
+
+        val reports = try {
+            program.runInProcess(networkProfile) { host -> ScannerIOStrategy(scanners.getValue(host), outputs.getValue(host)) }
+        } finally {
+            scanners.values.forEach { it.close() }
+        }
+
+        for (host in program.hosts.sorted()) {
+            println("${host.name} outputs:")
+            println(outputs.getValue(host).toString().trim())
+        }
+        for (host in program.hosts.sorted()) {
+            println(reports.getValue(host))
         }
     }
 }
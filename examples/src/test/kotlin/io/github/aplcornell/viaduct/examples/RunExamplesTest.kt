@@ -1,9 +1,16 @@
 package io.github.aplcornell.viaduct.examples
 
 import io.github.aplcornell.viaduct.runtime.CombinedRuntime
+import io.github.aplcornell.viaduct.runtime.EquivocationException
+import io.github.aplcornell.viaduct.runtime.FrameBuffer
+import io.github.aplcornell.viaduct.runtime.NIONetworkStrategy
+import io.github.aplcornell.viaduct.runtime.NetworkStrategy
 import io.github.aplcornell.viaduct.runtime.ScannerIOStrategy
+import io.github.aplcornell.viaduct.runtime.SharedMemoryNetworkStrategy
 import io.github.aplcornell.viaduct.runtime.TCPNetworkStrategy
 import io.github.aplcornell.viaduct.runtime.ViaductGeneratedProgram
+import io.github.aplcornell.viaduct.runtime.WireDecoder
+import io.github.aplcornell.viaduct.runtime.WireEncoder
 import io.github.aplcornell.viaduct.syntax.Host
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
@@ -13,13 +20,17 @@ import org.apache.logging.log4j.core.config.Configurator
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Disabled
+import org.junit.jupiter.api.assertThrows
 import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.ArgumentsSource
+import org.junit.jupiter.params.provider.ValueSource
 import java.io.File
 import java.io.StringWriter
 import java.net.InetAddress
 import java.net.InetSocketAddress
 import java.net.ServerSocket
+import java.nio.file.Files
+import java.nio.file.Path
 import java.util.Scanner
 
 internal class RunExamplesTest {
@@ -29,6 +40,34 @@ internal class RunExamplesTest {
         checkOutput(program)
     }
 
+    @ParameterizedTest
+    @ArgumentsSource(ViaductProgramProvider::class)
+    fun `produces correct output over NIO`(program: ViaductGeneratedProgram) {
+        checkOutput(program, Transport.NIO)
+    }
+
+    @ParameterizedTest
+    @ArgumentsSource(ViaductProgramProvider::class)
+    fun `produces correct output over shared memory`(program: ViaductGeneratedProgram) {
+        checkOutput(program, Transport.SHARED_MEMORY)
+    }
+
+    /**
+     * Checks that receivers catch a replica that sends them something other than the value it was given.
+     * Small arrays are checked by comparing full values and large ones by comparing digests;
+     * bob is the replica that sends the full value when digests are used, and chuck sends the digest.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = ["bob", "chuck"])
+    fun `detects equivocating replicas`(replica: String) {
+        for (programName in listOf("EquivocationArray", "EquivocationDigest")) {
+            val program = viaductPrograms.single { it::class.simpleName == programName }
+            assertThrows<EquivocationException>(programName) {
+                program.run(Transport.TCP, equivocator = Host(replica))
+            }
+        }
+    }
+
     @Disabled
     @ParameterizedTest
     @ArgumentsSource(ViaductABYProgramProvider::class)
@@ -61,9 +100,12 @@ internal class RunExamplesTest {
     }
 }
 
+/** Network strategies that programs can be tested over. */
+private enum class Transport { TCP, NIO, SHARED_MEMORY }
+
 /** Executes [program] and verifies that produces the expected output. */
-private fun checkOutput(program: ViaductGeneratedProgram) {
-    val outputs = program.run()
+private fun checkOutput(program: ViaductGeneratedProgram, transport: Transport = Transport.TCP) {
+    val outputs = program.run(transport)
 
     program.hosts.forEach { host ->
         println("${host.name} outputs:")
@@ -80,29 +122,109 @@ private fun checkOutput(program: ViaductGeneratedProgram) {
 private fun parseOutput(output: String): List<String> =
     output.trim().split(Regex("\\s+"))
 
-/** Runs [this] program as all hosts in parallel and returns their outputs. */
-private fun ViaductGeneratedProgram.run(): Map<Host, String> {
+/**
+ * Runs [this] program as all hosts in parallel and returns their outputs.
+ *
+ * If [equivocator] is given, that host corrupts every value it sends.
+ */
+private fun ViaductGeneratedProgram.run(transport: Transport, equivocator: Host? = null): Map<Host, String> {
     val hosts = this.hosts.sorted()
     val hostAddresses = hosts.associateWith {
         InetSocketAddress(InetAddress.getLoopbackAddress(), findAvailableTcpPort())
     }
 
-    return runBlocking(Dispatchers.IO) {
-        hosts.associateWith { host ->
-            async { this@run.runAs(host, hostAddresses) }
-        }.mapValues { it.value.await() }
+    // shared memory rings are files, so give each run its own directory
+    val ringDirectory: Path? =
+        if (transport == Transport.SHARED_MEMORY) Files.createTempDirectory("viaduct-rings") else null
+
+    try {
+        return runBlocking(Dispatchers.IO) {
+            hosts.associateWith { host ->
+                async { this@run.runAs(host, hostAddresses, transport, ringDirectory, host == equivocator) }
+            }.mapValues { it.value.await() }
+        }
+    } finally {
+        ringDirectory?.toFile()?.deleteRecursively()
     }
 }
 
-/** Runs [this] program as [host] and returns its output. */
-private fun ViaductGeneratedProgram.runAs(host: Host, hostAddresses: Map<Host, InetSocketAddress>): String {
+/**
+ * Runs [this] program as [host] and returns its output.
+ *
+ * [ringDirectory] holds the shared memory rings, and must be set if [transport] is [Transport.SHARED_MEMORY].
+ */
+private fun ViaductGeneratedProgram.runAs(
+    host: Host,
+    hostAddresses: Map<Host, InetSocketAddress>,
+    transport: Transport,
+    ringDirectory: Path?,
+    equivocate: Boolean = false,
+): String {
     Scanner(inputFile(this, host)).use { inputs ->
         val outputs = StringWriter()
-        TCPNetworkStrategy(host, hostAddresses).use { networkStrategy ->
-            networkStrategy.start()
-            val runtime = CombinedRuntime(ScannerIOStrategy(inputs, outputs), networkStrategy)
+        fun runOver(networkStrategy: NetworkStrategy) {
+            val runtime = CombinedRuntime(
+                ScannerIOStrategy(inputs, outputs),
+                if (equivocate) EquivocatingNetworkStrategy(networkStrategy) else networkStrategy,
+            )
             this.main(host, runtime)
-            return outputs.toString()
+        }
+
+        when (transport) {
+            Transport.TCP ->
+                TCPNetworkStrategy(host, hostAddresses).use { networkStrategy ->
+                    networkStrategy.start()
+                    runOver(networkStrategy)
+                }
+
+            Transport.NIO ->
+                NIONetworkStrategy(host, hostAddresses).use { networkStrategy ->
+                    networkStrategy.start()
+                    runOver(networkStrategy)
+                }
+
+            Transport.SHARED_MEMORY ->
+                SharedMemoryNetworkStrategy(host, hostAddresses, ringDirectory!!).use { networkStrategy ->
+                    networkStrategy.start()
+                    runOver(networkStrategy)
+                }
+        }
+        return outputs.toString()
+    }
+}
+
+/** Flips a bit at the end of every value sent, as a replica lying about its value would. */
+private class EquivocatingNetworkStrategy(private val network: NetworkStrategy) : NetworkStrategy {
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T =
+        network.receive(codec, sender)
+
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {
+        network.send(CorruptingEncoder(codec), value, receiver)
+    }
+
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+        network.broadcast(CorruptingEncoder(codec), value, receivers)
+    }
+
+    override fun flush(receiver: Host) {
+        network.flush(receiver)
+    }
+
+    override fun flushAll() {
+        network.flushAll()
+    }
+
+    override fun url(host: Host): InetSocketAddress =
+        network.url(host)
+
+    private class CorruptingEncoder<T>(private val encoder: WireEncoder<T>) : WireEncoder<T> {
+        override fun encode(value: T, output: FrameBuffer) {
+            val start = output.size
+            encoder.encode(value, output)
+            if (output.size > start) {
+                val bytes = output.array()
+                bytes[output.size - 1] = (bytes[output.size - 1].toInt() xor 1).toByte()
+            }
         }
     }
 }
@@ -7,6 +7,7 @@ plugins {
 dependencies {
     implementation(project(":shared"))
     implementation(project(":compiler"))
+    implementation(project(":runtime"))
 
     // Data structures
     implementation(libs.kotlinx.collections.immutable.jvm)
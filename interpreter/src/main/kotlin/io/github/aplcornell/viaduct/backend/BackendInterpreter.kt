@@ -44,6 +44,10 @@ class BackendInterpreter(
     private val protocolInterpreterMap: Map<Protocol, ProtocolInterpreter>
     private val syncProtocol = Synchronization(program.hostDeclarations.map { it.name.value }.toSet())
 
+    /** The synchronization process of each host, resolved once since every statement synchronizes. */
+    private val syncProcesses: Map<Host, ProcessId> =
+        syncProtocol.hosts.associateWith { syncHost -> runtime.processId(ProtocolProjection(syncProtocol, syncHost)) }
+
     init {
         val initInterpreterMap: MutableMap<Protocol, ProtocolInterpreter> = mutableMapOf()
         val currentProtocols: MutableSet<Protocol> = mutableSetOf()
@@ -102,7 +106,7 @@ class BackendInterpreter(
         if (senders.contains(this.host)) {
             for (receiver in receivers) {
                 if (this.host != receiver) {
-                    runtime.send(UnitValue, ProtocolProjection(syncProtocol, receiver))
+                    runtime.send(UnitValue, syncProcesses.getValue(receiver))
                 }
             }
         }
@@ -110,7 +114,7 @@ class BackendInterpreter(
         if (receivers.contains(this.host)) {
             for (sender in senders) {
                 if (this.host != sender) {
-                    runtime.receive(ProtocolProjection(syncProtocol, sender))
+                    runtime.receive(syncProcesses.getValue(sender))
                 }
             }
         }
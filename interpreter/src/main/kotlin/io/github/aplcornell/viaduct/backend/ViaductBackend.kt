@@ -9,12 +9,27 @@ import io.github.aplcornell.viaduct.syntax.intermediate.HostDeclarationNode
 import io.github.aplcornell.viaduct.syntax.intermediate.ProgramNode
 import io.github.aplcornell.viaduct.util.duration
 import mu.KotlinLogging
+import java.io.File
 
 private val logger = KotlinLogging.logger("ViaductBackend")
 
+/**
+ * Runs programs using [backends].
+ *
+ * If [metricsFile] is set, traffic statistics for the host are written to it as JSON once the program finishes.
+ * If [recordFile] is set, messages received from other hosts are recorded to it,
+ * and if [replayFile] is set, the host runs in isolation against such a recording.
+ * If [eagerReceive] is set, messages are decoded as soon as they arrive,
+ * and if [sharedLoopThread] is set, the message loops for all hosts share one thread. See [ViaductRuntime].
+ */
 class ViaductBackend(
     private val backends: List<ProtocolBackend>,
     private val customConnectionInfo: Map<Host, HostAddress> = mapOf(),
+    private val metricsFile: File? = null,
+    private val recordFile: File? = null,
+    private val replayFile: File? = null,
+    private val eagerReceive: Boolean = false,
+    private val sharedLoopThread: Boolean = false,
 ) {
     companion object {
         const val DEFAULT_PORT = 5000
@@ -52,8 +67,22 @@ class ViaductBackend(
                 customConnectionInfo
             }
 
-        val runtime = ViaductRuntime(host, program, protocolAnalysis, connectionMap, backends, strategy)
+        val runtime =
+            ViaductRuntime(
+                host,
+                program,
+                protocolAnalysis,
+                connectionMap,
+                backends,
+                strategy,
+                recordFile,
+                replayFile,
+                eagerReceive,
+                sharedLoopThread,
+            )
 
         logger.duration("runtime") { runtime.start() }
+
+        metricsFile?.let { runtime.metrics.writeJson(it) }
     }
 }
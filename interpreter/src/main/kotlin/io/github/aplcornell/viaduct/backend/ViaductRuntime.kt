@@ -4,6 +4,12 @@ import io.github.aplcornell.viaduct.analysis.ProtocolAnalysis
 import io.github.aplcornell.viaduct.backend.io.Strategy
 import io.github.aplcornell.viaduct.errors.ViaductInterpreterError
 import io.github.aplcornell.viaduct.protocols.Synchronization
+import io.github.aplcornell.viaduct.runtime.ConnectionBackoff
+import io.github.aplcornell.viaduct.runtime.FrameBuffer
+import io.github.aplcornell.viaduct.runtime.NetworkRecordingReader
+import io.github.aplcornell.viaduct.runtime.NetworkRecordingWriter
+import io.github.aplcornell.viaduct.runtime.ReplayExhaustedException
+import io.github.aplcornell.viaduct.runtime.RuntimeMetrics
 import io.github.aplcornell.viaduct.selection.CommunicationEvent
 import io.github.aplcornell.viaduct.syntax.Host
 import io.github.aplcornell.viaduct.syntax.Protocol
@@ -14,22 +20,35 @@ import io.github.aplcornell.viaduct.syntax.values.ByteVecValue
 import io.github.aplcornell.viaduct.syntax.values.IntegerValue
 import io.github.aplcornell.viaduct.syntax.values.UnitValue
 import io.github.aplcornell.viaduct.syntax.values.Value
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExecutorCoroutineDispatcher
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.withContext
 import mu.KotlinLogging
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FilterInputStream
+import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.net.ConnectException
 import java.net.ServerSocket
 import java.net.Socket
+import java.net.SocketException
 import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.util.Scanner
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 
 private var logger = KotlinLogging.logger("Runtime")
@@ -37,34 +56,120 @@ private var logger = KotlinLogging.logger("Runtime")
 typealias ProcessId = Int
 typealias HostId = Int
 
+/** Identifies the logical stream of messages from one process to another. */
+typealias StreamId = Int
+
 sealed class ViaductMessage
 
 sealed class CommunicationMessage : ViaductMessage()
 
 data class SendMessage(
-    val sender: ProcessId,
-    val receiver: ProcessId,
+    val stream: StreamId,
     val message: Value,
 ) : CommunicationMessage()
 
 data class ReceiveMessage(
-    val sender: ProcessId,
-    val receiver: ProcessId,
+    val stream: StreamId,
 ) : CommunicationMessage()
 
 object ShutdownMessage : ViaductMessage()
 
+/*
+ * Messages between interpreters are sent as frames: the frame length as a varint, followed by the frame.
+ * Frames longer than FrameBuffer.MAX_PAYLOAD_SIZE are rejected.
+ * A frame is the stream identifier as a varint, a type tag, and the value:
+ *  - 0: boolean, one byte
+ *  - 1: integer, four bytes big-endian
+ *  - 2: byte vector, the rest of the frame
+ *  - 3: unit, nothing
+ */
+
+private const val BOOLEAN_TAG: Byte = 0
+private const val INTEGER_TAG: Byte = 1
+private const val BYTE_VEC_TAG: Byte = 2
+private const val UNIT_TAG: Byte = 3
+
+/** Maximum number of bytes in a varint encoding of an [Int]. */
+private const val MAX_VAR_INT_SIZE: Int = 5
+
+private const val SOCKET_BUFFER_SIZE: Int = 64 * 1024
+
+private fun ByteBuffer.putVarInt(value: Int): ByteBuffer {
+    var remaining = value
+    while (remaining and 0x7F.inv() != 0) {
+        put(((remaining and 0x7F) or 0x80).toByte())
+        remaining = remaining ushr 7
+    }
+    return put(remaining.toByte())
+}
+
+private fun ByteBuffer.getVarInt(): Int {
+    var value = 0
+    var shift = 0
+    while (shift < Int.SIZE_BITS) {
+        val byte = get().toInt()
+        value = value or ((byte and 0x7F) shl shift)
+        if (byte and 0x80 == 0) {
+            return value
+        }
+        shift += 7
+    }
+    throw ViaductInterpreterError("parsed invalid varint")
+}
+
+private fun OutputStream.writeVarInt(value: Int) {
+    var remaining = value
+    while (remaining and 0x7F.inv() != 0) {
+        write((remaining and 0x7F) or 0x80)
+        remaining = remaining ushr 7
+    }
+    write(remaining)
+}
+
+/** Reads a varint, or returns `null` if the stream ends before its first byte. */
+private fun InputStream.readVarIntOrNull(): Int? {
+    var value = 0
+    var shift = 0
+    while (shift < Int.SIZE_BITS) {
+        val byte = read()
+        if (byte < 0 && shift == 0) {
+            return null
+        } else if (byte < 0) {
+            throw EOFException()
+        }
+        value = value or ((byte and 0x7F) shl shift)
+        if (byte and 0x80 == 0) {
+            return value
+        }
+        shift += 7
+    }
+    throw ViaductInterpreterError("parsed invalid varint")
+}
+
 private abstract class ViaductThread(
     val msgQueue: Channel<ViaductMessage>,
 ) {
     abstract suspend fun processCommunicationMessage(msg: CommunicationMessage)
 
+    /** Called whenever all queued messages have been processed, before waiting for more. */
+    open suspend fun drained() {}
+
+    /** Called when the thread is asked to stop. */
+    open suspend fun shutdown() = drained()
+
     suspend fun run() {
         loop@ while (true) {
-            when (val msg: ViaductMessage = msgQueue.receive()) {
+            var msg: ViaductMessage? = msgQueue.tryReceive().getOrNull()
+            if (msg == null) {
+                drained()
+                msg = msgQueue.receive()
+            }
+
+            when (msg) {
                 is CommunicationMessage -> processCommunicationMessage(msg)
 
                 is ShutdownMessage -> {
+                    shutdown()
                     logger.info { "shutting down $this" }
                     break@loop
                 }
@@ -73,86 +178,125 @@ private abstract class ViaductThread(
     }
 }
 
+/**
+ * Reads messages from [host] and delivers them to the streams they belong to.
+ *
+ * By default, a message is only read when a process asks to receive from [host] (see [run]).
+ * With [runEagerly], messages are instead read as soon as they arrive.
+ */
 private class ViaductReceiverThread(
     val host: Host,
-    val socket: Socket,
+    socketInput: InputStream,
     val runtime: ViaductRuntime,
     msgQueue: Channel<ViaductMessage>,
+    private val metrics: RuntimeMetrics.DirectionMetrics,
+    private val replaying: Boolean,
 ) : ViaductThread(msgQueue) {
-    var bytesReceived: Long = 0
-        private set
+    private val input = DataInputStream(BufferedInputStream(socketInput, SOCKET_BUFFER_SIZE))
+
+    /** Holds the frame being decoded. Replaced by a larger array when a frame does not fit. */
+    private var frameBytes = ByteArray(FrameBuffer.DEFAULT_CAPACITY)
+
+    val bytesReceived: Long
+        get() = metrics.bytes
 
     override fun toString(): String {
         return "receiver thread for host ${host.name}"
     }
 
-    override suspend fun processCommunicationMessage(msg: CommunicationMessage) {
-        when (msg) {
-            is ReceiveMessage -> {
-                val result: Triple<Value, Process, Process> =
-                    withContext(Dispatchers.IO) {
-                        val socketInput: InputStream = socket.getInputStream()
-                        val senderId: Int = socketInput.read()
-                        val receiverId: Int = socketInput.read()
-                        val valType: Int = socketInput.read()
-                        bytesReceived += 3
-
-                        val sender: Process = runtime.getProcessById(senderId).process
-                        val receiver: Process = runtime.getProcessById(receiverId).process
-                        val value: Value =
-                            when (valType) {
-                                // BooleanValue
-                                0 -> {
-                                    bytesReceived += 1
-                                    BooleanValue(socketInput.read() != 0)
-                                }
-
-                                // IntegerValue
-                                1 -> {
-                                    bytesReceived += 4
-                                    val b = socketInput.readNBytes(4)
-                                    IntegerValue(ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).int)
-                                }
-
-                                // ByteVecValue
-                                2 -> {
-                                    val lenBytes = socketInput.readNBytes(4)
-                                    val len = ByteBuffer.wrap(lenBytes).order(ByteOrder.LITTLE_ENDIAN).int
-                                    val i = socketInput.readNBytes(len).toList()
-                                    bytesReceived += 4 + len
-                                    ByteVecValue(i)
-                                }
-
-                                // UnitValue
-                                3 -> UnitValue
-
-                                else -> throw ViaductInterpreterError("parsed invalid value type $valType")
-                            }
+    /** Reads the next message and the stream it belongs to, or returns `null` if [host] has closed the connection. */
+    private suspend fun readMessage(): Pair<Value, StreamInfo>? =
+        withContext(Dispatchers.IO) {
+            val frameSize = input.readVarIntOrNull() ?: return@withContext null
+            if (frameSize !in 0..FrameBuffer.MAX_PAYLOAD_SIZE) {
+                throw IOException("received a frame of invalid length $frameSize from host ${host.name}")
+            }
+            if (frameBytes.size < frameSize) {
+                frameBytes = ByteArray(maxOf(frameSize, frameBytes.size * 2))
+            }
+            input.readFully(frameBytes, 0, frameSize)
+            metrics.record(frameSize)
+
+            val frame = ByteBuffer.wrap(frameBytes, 0, frameSize)
+            val stream = runtime.getStreamById(frame.getVarInt())
+            val value: Value =
+                when (val valType = frame.get()) {
+                    BOOLEAN_TAG -> BooleanValue(frame.get() != 0.toByte())
+
+                    INTEGER_TAG -> IntegerValue(frame.int)
 
-                        Triple(value, sender, receiver)
+                    BYTE_VEC_TAG -> {
+                        val bytes = ByteArray(frame.remaining())
+                        frame.get(bytes)
+                        ByteVecValue(bytes.toList())
                     }
 
-                logger.info {
-                    "received remote message ${result.first.type.toDocument().print()} " +
-                        "from ${result.second.toDocument().print()} to ${result.third.toDocument().print()}"
+                    UNIT_TAG -> UnitValue
+
+                    else -> throw ViaductInterpreterError("parsed invalid value type $valType")
                 }
 
-                runtime.send(result.first, result.second, result.third)
+            Pair(value, stream)
+        }
+
+    private suspend fun deliver(message: Pair<Value, StreamInfo>) {
+        logger.info {
+            "received remote message ${message.first.type.toDocument().print()} " +
+                "from ${message.second.sender.toDocument().print()} " +
+                "to ${message.second.receiver.toDocument().print()}"
+        }
+
+        message.second.channel.send(message.first)
+    }
+
+    override suspend fun processCommunicationMessage(msg: CommunicationMessage) {
+        when (msg) {
+            is ReceiveMessage -> {
+                // The frame read here may belong to any stream from this host, not necessarily msg.stream;
+                // it is routed to its own stream and whoever reads that stream next will pick it up.
+                val message =
+                    readMessage()
+                        ?: throw if (replaying) {
+                            ReplayExhaustedException(host)
+                        } else {
+                            ViaductInterpreterError("host ${host.name} closed the connection")
+                        }
+                deliver(message)
             }
 
             else -> throw ViaductInterpreterError("receiver coroutine cannot send")
         }
     }
+
+    /**
+     * Reads and delivers messages as they arrive, until [host] closes the connection.
+     *
+     * Delivery suspends while the destination stream's channel is full, which stops reading from [host]
+     * until the receiving process catches up.
+     */
+    suspend fun runEagerly() {
+        while (true) {
+            deliver(readMessage() ?: break)
+        }
+        logger.info { "$this reached end of input" }
+    }
 }
 
 private class ViaductSenderThread(
     val host: Host,
-    val socket: Socket,
+    socketOutput: OutputStream,
     val runtime: ViaductRuntime,
     msgQueue: Channel<ViaductMessage>,
+    private val metrics: RuntimeMetrics.DirectionMetrics,
+    private val closeOutput: () -> Unit,
 ) : ViaductThread(msgQueue) {
-    var bytesSent: Long = 0
-        private set
+    private val output = BufferedOutputStream(socketOutput, SOCKET_BUFFER_SIZE)
+
+    /** Reused to encode each frame before it is written to [output]. */
+    private val frame = FrameBuffer()
+
+    val bytesSent: Long
+        get() = metrics.bytes
 
     override fun toString(): String {
         return "sender thread for host ${host.name}"
@@ -161,46 +305,77 @@ private class ViaductSenderThread(
     override suspend fun processCommunicationMessage(msg: CommunicationMessage) {
         when (msg) {
             is SendMessage -> {
-                withContext(Dispatchers.IO) {
-                    val socketOutput: OutputStream = socket.getOutputStream()
-                    socketOutput.write(msg.sender)
-                    socketOutput.write(msg.receiver)
-                    bytesSent += 2
-                    when (msg.message) {
-                        is BooleanValue -> {
-                            socketOutput.write(0)
-                            socketOutput.write(if (msg.message.value) 1 else 0)
-                            bytesSent += 2
+                frame.clear()
+                frame.reserve(MAX_VAR_INT_SIZE + 1).putVarInt(msg.stream)
+                when (msg.message) {
+                    is BooleanValue ->
+                        frame.reserve(2).put(BOOLEAN_TAG).put((if (msg.message.value) 1 else 0).toByte())
+
+                    is IntegerValue ->
+                        frame.reserve(1 + Int.SIZE_BYTES).put(INTEGER_TAG).putInt(msg.message.value)
+
+                    is ByteVecValue -> {
+                        val bytes = msg.message.value
+                        val buffer = frame.reserve(1 + bytes.size).put(BYTE_VEC_TAG)
+                        for (b in bytes) {
+                            buffer.put(b)
                         }
+                    }
 
-                        is IntegerValue -> {
-                            socketOutput.write(1)
-                            val b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(msg.message.value)
-                            socketOutput.write(b.array())
-                            bytesSent += 5
-                        }
+                    is UnitValue ->
+                        frame.reserve(1).put(UNIT_TAG)
 
-                        is ByteVecValue -> {
-                            socketOutput.write(2)
-                            val bytes = msg.message.value.toByteArray()
-                            val len = bytes.size
-                            val lenBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(len)
-                            socketOutput.write(lenBytes.array())
-                            socketOutput.write(bytes)
-                            bytesSent += 5 + bytes.size
-                        }
+                    else -> throw ViaductInterpreterError("cannot send value ${msg.message}")
+                }
 
-                        is UnitValue -> {
-                            socketOutput.write(3)
-                            bytesSent += 1
-                        }
-                    }
+                withContext(Dispatchers.IO) {
+                    output.writeVarInt(frame.size)
+                    output.write(frame.array(), 0, frame.size)
                 }
+                metrics.record(frame.size)
             }
 
             else -> throw ViaductInterpreterError("sender coroutine cannot receive")
         }
     }
+
+    /** Sends buffered frames once there is nothing left to batch them with. */
+    override suspend fun drained() {
+        withContext(Dispatchers.IO) {
+            output.flush()
+        }
+    }
+
+    /** Flushes remaining frames and tells [host] that nothing more will be sent. */
+    override suspend fun shutdown() {
+        drained()
+        withContext(Dispatchers.IO) {
+            closeOutput()
+        }
+    }
+}
+
+/** Passes through everything read from [input], and records it in [recording] as received from [sender]. */
+private class RecordingInputStream(
+    input: InputStream,
+    private val sender: Host,
+    private val recording: NetworkRecordingWriter,
+) : FilterInputStream(input) {
+    override fun read(): Int {
+        val b = super.read()
+        if (b >= 0) {
+            recording.write(sender, byteArrayOf(b.toByte()))
+        }
+        return b
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val n = super.read(b, off, len)
+        if (n > 0) {
+            recording.write(sender, b, off, n)
+        }
+        return n
+    }
 }
 
 typealias IpAddress = String
@@ -229,6 +404,32 @@ data class ProcessInfo(
 
 typealias Process = ProtocolProjection
 
+/** The logical stream of messages from [sender] to [receiver], delivered through [channel]. */
+data class StreamInfo(
+    val sender: Process,
+    val receiver: Process,
+    val id: StreamId,
+    val channel: Channel<Value>,
+)
+
+/**
+ * Runs [program] as [host], communicating with the other hosts over TCP.
+ *
+ * If [recordFile] is set, everything received from other hosts is recorded to it.
+ * If [replayFile] is set, no connections are made; messages are read back from the recording instead,
+ * and messages to other hosts are discarded. This only replays traffic between interpreters,
+ * so protocols that open their own connections (ABY) still need live peers.
+ *
+ * If [eagerReceive] is set, messages from other hosts are read and routed to their streams as soon as
+ * they arrive, instead of when a process asks for them. This overlaps decoding with computation, and lets
+ * each stream buffer up to [CHANNEL_CAPACITY] messages in flight; a full stream stops reading from its host.
+ *
+ * By default, the sender and receiver loops for each host get a thread each. If [sharedLoopThread] is set,
+ * all loops share one thread instead. Either way, the threads are stopped when [start] returns.
+ * This thread only runs the loops themselves (framing, encoding, decoding and routing): blocking socket reads and
+ * writes are still dispatched to [Dispatchers.IO], which uses one pooled thread for each read or write in progress.
+ * In particular, with [eagerReceive], each host's receiver holds an I/O thread while it waits for a message.
+ */
 class ViaductRuntime(
     val host: Host,
     private val program: ProgramNode,
@@ -236,21 +437,42 @@ class ViaductRuntime(
     private val hostConnectionInfo: Map<Host, HostAddress>,
     private val backends: List<ProtocolBackend>,
     private val strategy: Strategy,
+    private val recordFile: File? = null,
+    private val replayFile: File? = null,
+    private val eagerReceive: Boolean = false,
+    private val sharedLoopThread: Boolean = false,
 ) {
+    /** Traffic statistics for the connections to other hosts. Complete once [start] returns. */
+    val metrics = RuntimeMetrics(host)
+
     private val syncProtocol = Synchronization(program.hostDeclarations.map { it.name.value }.toSet())
     private val processInfoMap: Map<Process, ProcessInfo>
     private val hostInfoMap: Map<Host, HostInfo>
 
     private val channelMap: Map<Process, Map<Process, Channel<Value>>>
 
+    /** Streams between every pair of processes, numbered the same way by all hosts. */
+    private val streamInfoMap: Map<Pair<Process, Process>, StreamInfo>
+
+    // Dense tables indexed by identifier, so that routing a message only takes array lookups.
+    private val processesById: Array<ProcessInfo?>
+    private val hostsById: Array<HostInfo?>
+    private val streamsById: Array<StreamInfo>
+
+    /** The host each process runs on, indexed by process identifier. */
+    private val processHosts: Array<HostInfo?>
+
+    /** The stream from one process to another, indexed by sender then receiver process identifier. */
+    private val streamTable: Array<Array<StreamInfo?>>
+
     private val stdinScanner: Scanner = Scanner(System.`in`)
 
     companion object {
         // output buffer for channels
         private const val CHANNEL_CAPACITY: Int = 100
 
-        // try to connect for 10 seconds, at 100ms intervals
-        const val CONNECTION_NUM_RETRY: Int = 20
+        // try to connect for 10 seconds, backing off up to 500ms between attempts
+        const val CONNECTION_TIMEOUT: Long = 10_000
         const val CONNECTION_RETRY_DELAY: Long = 500
     }
 
@@ -318,6 +540,21 @@ class ViaductRuntime(
 
         channelMap = tempChannelMap
 
+        // assign stream identifiers in an order that all hosts agree on
+        streamInfoMap =
+            channelMap
+                .flatMap { sender -> sender.value.map { receiver -> Triple(sender.key, receiver.key, receiver.value) } }
+                .sortedWith(
+                    compareBy(
+                        { processInfoMap[it.first]!!.id },
+                        { processInfoMap[it.second]!!.id },
+                    ),
+                )
+                .mapIndexed { id, (sender, receiver, channel) ->
+                    Pair(sender, receiver) to StreamInfo(sender, receiver, id, channel)
+                }
+                .toMap()
+
         // create identifiers for hosts
         val hostList: List<Host> =
             program.hostDeclarations.map { node -> node.name.value }.sorted()
@@ -330,31 +567,60 @@ class ViaductRuntime(
             i++
         }
         hostInfoMap = tempHostInfoMap
-    }
 
-    fun getHostById(id: HostId): HostInfo =
-        hostInfoMap.values.first { hinfo -> hinfo.id == id }
-
-    fun getProcessById(id: ProcessId): ProcessInfo {
-        val lst = processInfoMap.values.filter { pinfo -> pinfo.id == id }
-        if (lst.isNotEmpty()) {
-            return lst.first()
-        } else {
-            throw ViaductInterpreterError("unknown process id: $id")
+        // build routing tables; identifiers are dense, starting at 1 for processes and hosts and 0 for streams
+        processesById = arrayOfNulls(processInfoMap.size + 1)
+        processHosts = arrayOfNulls(processInfoMap.size + 1)
+        for (pinfo in processInfoMap.values) {
+            processesById[pinfo.id] = pinfo
+            processHosts[pinfo.id] = hostInfoMap[pinfo.host]
+        }
+
+        hostsById = arrayOfNulls(hostInfoMap.size + 1)
+        for (hinfo in hostInfoMap.values) {
+            hostsById[hinfo.id] = hinfo
+        }
+
+        streamsById = streamInfoMap.values.sortedBy { it.id }.toTypedArray()
+        streamTable = Array(processInfoMap.size + 1) { arrayOfNulls(processInfoMap.size + 1) }
+        for (sinfo in streamsById) {
+            streamTable[processInfoMap[sinfo.sender]!!.id][processInfoMap[sinfo.receiver]!!.id] = sinfo
         }
     }
 
+    fun getHostById(id: HostId): HostInfo =
+        hostsById.getOrNull(id) ?: throw ViaductInterpreterError("unknown host id: $id")
+
+    fun getProcessById(id: ProcessId): ProcessInfo =
+        processesById.getOrNull(id) ?: throw ViaductInterpreterError("unknown process id: $id")
+
+    fun getStreamById(id: StreamId): StreamInfo =
+        streamsById.getOrNull(id) ?: throw ViaductInterpreterError("unknown stream id: $id")
+
+    internal fun getProcessId(process: Process): ProcessId =
+        processInfoMap[process]?.id ?: throw ViaductInterpreterError("unknown process: ${process.toDocument().print()}")
+
+    private fun getStream(sender: ProcessId, receiver: ProcessId): StreamInfo =
+        streamTable[sender][receiver] ?: throw ViaductInterpreterError("no stream from process $sender to $receiver")
+
     suspend fun send(value: Value, sender: Process, receiver: Process) {
-        if (receiver.host == host) { // local communication
-            channelMap[sender]!![receiver]!!.send(value)
+        send(value, getProcessId(sender), getProcessId(receiver))
+    }
+
+    /** Like [send], but with processes given by their identifiers (see [getProcessId]). */
+    internal suspend fun send(value: Value, sender: ProcessId, receiver: ProcessId) {
+        val stream = getStream(sender, receiver)
+        val receiverHost = processHosts[receiver]!!
+        if (receiverHost.host == host) { // local communication
+            stream.channel.send(value)
         } else { // remote communication
 
-            val msg = SendMessage(processInfoMap[sender]!!.id, processInfoMap[receiver]!!.id, value)
-            hostInfoMap[receiver.host]!!.sendChannel.send(msg)
+            val msg = SendMessage(stream.id, value)
+            receiverHost.sendChannel.send(msg)
 
             logger.info {
                 "sent remote message ${value.type.toDocument().print()} " +
-                    "from ${sender.toDocument().print()} to ${receiver.toDocument().print()}"
+                    "from ${stream.sender.toDocument().print()} to ${stream.receiver.toDocument().print()}"
             }
         }
     }
@@ -363,13 +629,26 @@ class ViaductRuntime(
         send(value, event.send.asProjection(), event.recv.asProjection())
     }
 
-    suspend fun receive(sender: Process, receiver: Process): Value {
-        if (sender.host != host) { // remote communication
-            val msg = ReceiveMessage(processInfoMap[sender]!!.id, processInfoMap[receiver]!!.id)
-            hostInfoMap[sender.host]!!.recvChannel.send(msg)
+    suspend fun receive(sender: Process, receiver: Process): Value =
+        receive(getProcessId(sender), getProcessId(receiver))
+
+    /** Like [receive], but with processes given by their identifiers (see [getProcessId]). */
+    internal suspend fun receive(sender: ProcessId, receiver: ProcessId): Value {
+        val stream = getStream(sender, receiver)
+        val senderHost = processHosts[sender]!!
+        if (senderHost.host == host) { // local communication
+            return stream.channel.receive()
         }
 
-        return channelMap[sender]!![receiver]!!.receive()
+        // remote communication
+        val start = System.nanoTime()
+        if (!eagerReceive) {
+            val msg = ReceiveMessage(stream.id)
+            senderHost.recvChannel.send(msg)
+        }
+        val value = stream.channel.receive()
+        metrics.peer(senderHost.host).recordBlocked(System.nanoTime() - start)
+        return value
     }
 
     suspend fun receive(event: CommunicationEvent): Value {
@@ -386,67 +665,119 @@ class ViaductRuntime(
 
     // protocol for connections: for hosts i and j where i < j, j connects to i
     private fun createRemoteConnections(): Map<Host, Socket> {
-        val connectionMap: MutableMap<Host, Socket> = mutableMapOf()
+        val connectionMap: MutableMap<Host, Socket> = ConcurrentHashMap()
         val hinfo: HostInfo = hostInfoMap[host]!!
 
-        // connect to hosts with lower ID
-        for (hinfo2: HostInfo in hostInfoMap.values) {
-            if (hinfo2.id < hinfo.id) { // this host connects to that host
-                var retries = 0
-                var connected = false
-                while (retries < CONNECTION_NUM_RETRY) {
-                    try {
-                        val clientSocket = Socket(hinfo2.address.ipAddress, hinfo2.address.port)
-                        clientSocket.getOutputStream().write(hinfo.id)
-                        connectionMap[hinfo2.host] = clientSocket
-                        connected = true
-                        logger.info {
-                            "connected to host ${hinfo2.host.name} " +
-                                "at ${hinfo2.address.ipAddress}:${hinfo2.address.port}"
-                        }
+        // bind first so hosts with higher ID can connect while we are still connecting to others
+        val serverSocket = ServerSocket(hinfo.address.port)
+
+        serverSocket.use {
+            runBlocking(Dispatchers.IO) {
+                // accept connections from hosts with higher ID
+                val incomingConnections: MutableSet<HostId> =
+                    hostInfoMap.values
+                        .filter { hinfo2 -> hinfo2.id > hinfo.id }
+                        .map { hinfo2 -> hinfo2.id }
+                        .toMutableSet()
 
-                        break
-                    } catch (e: ConnectException) {
-                        logger.info {
-                            "failed to connect to host ${hinfo2.host.name} " +
-                                "at ${hinfo2.address.ipAddress}:${hinfo2.address.port}, retrying"
+                launch {
+                    while (incomingConnections.isNotEmpty()) {
+                        val clientSocket = try {
+                            serverSocket.accept()
+                        } catch (e: SocketException) {
+                            // a failed connection attempt closes the server socket; report that failure instead
+                            if (serverSocket.isClosed) {
+                                throw CancellationException("stopped accepting connections", e)
+                            }
+                            throw e
                         }
-                        retries++
-                        Thread.sleep(CONNECTION_RETRY_DELAY)
+                        val clientHostId = clientSocket.getInputStream().read()
+                        val clientHost = getHostById(clientHostId)
+                        connectionMap[clientHost.host] = clientSocket
+                        incomingConnections.remove(clientHostId)
+
+                        logger.info { "accepted connection from host ${clientHost.host.name}" }
                     }
                 }
 
-                if (!connected) {
-                    throw ViaductInterpreterError("host ${hinfo.host} failed to connect to ${hinfo2.host}")
+                // connect to hosts with lower ID
+                for (hinfo2: HostInfo in hostInfoMap.values.filter { hinfo2 -> hinfo2.id < hinfo.id }) {
+                    launch {
+                        connectionMap[hinfo2.host] = connect(hinfo, hinfo2) {
+                            // unblock the accepting coroutine so the failure can propagate
+                            serverSocket.close()
+                        }
+                    }
                 }
             }
         }
 
-        // accept connections from hosts with higher ID
-        val incomingConnections: MutableSet<HostId> =
-            hostInfoMap.values
-                .filter { hinfo2 -> hinfo2.id > hinfo.id }
-                .map { hinfo2 -> hinfo2.id }
-                .toMutableSet()
+        return connectionMap
+    }
 
-        val serverSocket = ServerSocket(hinfo.address.port)
-        while (incomingConnections.isNotEmpty()) {
-            val clientSocket = serverSocket.accept()
-            val clientHostId = clientSocket.getInputStream().read()
-            val clientHost = getHostById(clientHostId)
-            connectionMap[clientHost.host] = clientSocket
-            incomingConnections.remove(clientHostId)
-
-            logger.info { "accepted connection from host ${clientHost.host.name}" }
-        }
+    /** Connects to [remote], retrying with a [ConnectionBackoff] for up to [CONNECTION_TIMEOUT] milliseconds. */
+    private suspend fun connect(local: HostInfo, remote: HostInfo, onFailure: () -> Unit): Socket {
+        val backoff = ConnectionBackoff(CONNECTION_RETRY_DELAY, CONNECTION_TIMEOUT)
+        while (true) {
+            try {
+                val clientSocket = Socket(remote.address.ipAddress, remote.address.port)
+                clientSocket.getOutputStream().write(local.id)
+                logger.info {
+                    "connected to host ${remote.host.name} " +
+                        "at ${remote.address.ipAddress}:${remote.address.port}"
+                }
 
-        serverSocket.close()
+                return clientSocket
+            } catch (e: ConnectException) {
+                val retryDelay = backoff.nextDelay() ?: run {
+                    onFailure()
+                    throw ViaductInterpreterError("host ${local.host} failed to connect to ${remote.host}")
+                }
 
-        return connectionMap
+                logger.info {
+                    "failed to connect to host ${remote.host.name} " +
+                        "at ${remote.address.ipAddress}:${remote.address.port}, retrying in $retryDelay ms"
+                }
+                delay(retryDelay)
+            }
+        }
+    }
+
+    /** Reads the bytes recorded from each host in [file]. */
+    private fun replayedInputs(file: File): Map<Host, InputStream> {
+        val bytes = mutableMapOf<Host, ByteArrayOutputStream>()
+        NetworkRecordingReader(file).use { recording ->
+            while (true) {
+                val (sender, chunk) = recording.read() ?: break
+                bytes.getOrPut(sender) { ByteArrayOutputStream() }.write(chunk)
+            }
+        }
+        return hostInfoMap.keys.filter { it != host }.associateWith {
+            ByteArrayInputStream(bytes[it]?.toByteArray() ?: ByteArray(0))
+        }
     }
 
     fun start() {
-        val connectionMap: Map<Host, Socket> = createRemoteConnections()
+        require(recordFile == null || replayFile == null) { "Cannot record and replay at the same time." }
+
+        val connectionMap: Map<Host, Socket> = if (replayFile == null) createRemoteConnections() else mapOf()
+        val recording: NetworkRecordingWriter? = recordFile?.let { NetworkRecordingWriter(it) }
+
+        val inputs: Map<Host, InputStream> =
+            if (replayFile != null) {
+                replayedInputs(replayFile)
+            } else {
+                connectionMap.mapValues { (peer, socket) ->
+                    val input = socket.getInputStream()
+                    recording?.let { RecordingInputStream(input, peer, it) } ?: input
+                }
+            }
+        val outputs: Map<Host, OutputStream> =
+            if (replayFile != null) {
+                inputs.mapValues { OutputStream.nullOutputStream() }
+            } else {
+                connectionMap.mapValues { it.value.getOutputStream() }
+            }
 
         val hostParticipatingProtocols: Set<Protocol> =
             protocolAnalysis
@@ -466,78 +797,95 @@ class ViaductRuntime(
                 )
             }
 
+        // Sender and receiver loops only block inside Dispatchers.IO, so they can share a single thread.
+        val dispatchers = mutableListOf<ExecutorCoroutineDispatcher>()
+        fun newDispatcher(): ExecutorCoroutineDispatcher =
+            Executors.newSingleThreadExecutor().asCoroutineDispatcher().also { dispatchers.add(it) }
+        val sharedDispatcher: ExecutorCoroutineDispatcher? = if (sharedLoopThread) newDispatcher() else null
+
         val receiverThreads: MutableMap<Host, ViaductReceiverThread> = mutableMapOf()
         val senderThreads: MutableMap<Host, ViaductSenderThread> = mutableMapOf()
 
-        runBlocking {
-            for (kv: Map.Entry<Host, HostInfo> in hostInfoMap) {
-                if (host != kv.key) {
-                    receiverThreads[kv.key] =
-                        ViaductReceiverThread(
-                            kv.key,
-                            connectionMap[kv.key]!!,
-                            this@ViaductRuntime,
-                            hostInfoMap[kv.key]!!.recvChannel,
-                        )
-
-                    senderThreads[kv.key] =
-                        ViaductSenderThread(
-                            kv.key,
-                            connectionMap[kv.key]!!,
-                            this@ViaductRuntime,
-                            hostInfoMap[kv.key]!!.sendChannel,
-                        )
-
-                    launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
-                        logger.info { "launching receiver thread for host ${kv.key.name}" }
-                        receiverThreads[kv.key]!!.run()
-                    }
+        try {
+            runBlocking {
+                for (kv: Map.Entry<Host, HostInfo> in hostInfoMap) {
+                    if (host != kv.key) {
+                        receiverThreads[kv.key] =
+                            ViaductReceiverThread(
+                                kv.key,
+                                inputs[kv.key]!!,
+                                this@ViaductRuntime,
+                                hostInfoMap[kv.key]!!.recvChannel,
+                                metrics.peer(kv.key).received,
+                                replaying = replayFile != null,
+                            )
+
+                        senderThreads[kv.key] =
+                            ViaductSenderThread(
+                                kv.key,
+                                outputs[kv.key]!!,
+                                this@ViaductRuntime,
+                                hostInfoMap[kv.key]!!.sendChannel,
+                                metrics.peer(kv.key).sent,
+                            ) { connectionMap[kv.key]?.shutdownOutput() }
+
+                        launch(sharedDispatcher ?: newDispatcher()) {
+                            logger.info { "launching receiver thread for host ${kv.key.name}" }
+                            val receiverThread = receiverThreads[kv.key]!!
+                            if (eagerReceive) receiverThread.runEagerly() else receiverThread.run()
+                        }
 
-                    launch(Executors.newSingleThreadExecutor().asCoroutineDispatcher()) {
-                        logger.info { "launching sender thread for host ${kv.key.name}" }
-                        senderThreads[kv.key]!!.run()
+                        launch(sharedDispatcher ?: newDispatcher()) {
+                            logger.info { "launching sender thread for host ${kv.key.name}" }
+                            senderThreads[kv.key]!!.run()
+                        }
                     }
                 }
-            }
 
-            // run interpreter
-            val job: Job = launch {
-                val interpreter =
-                    BackendInterpreter(
-                        host,
-                        program,
-                        protocolAnalysis,
-                        processInterpreters,
-                        ViaductProcessRuntime(
-                            this@ViaductRuntime,
-                            ProtocolProjection(syncProtocol, host),
-                        ),
-                    )
-                interpreter.run()
-            }
+                // run interpreter
+                val job: Job = launch {
+                    val interpreter =
+                        BackendInterpreter(
+                            host,
+                            program,
+                            protocolAnalysis,
+                            processInterpreters,
+                            ViaductProcessRuntime(
+                                this@ViaductRuntime,
+                                ProtocolProjection(syncProtocol, host),
+                            ),
+                        )
+                    interpreter.run()
+                }
 
-            job.invokeOnCompletion {
-                launch {
-                    for (kv: Map.Entry<Host, HostInfo> in hostInfoMap) {
-                        if (host != kv.key) {
-                            val receiverThread: ViaductReceiverThread = receiverThreads[kv.key]!!
-                            val senderThread: ViaductSenderThread = senderThreads[kv.key]!!
+                job.invokeOnCompletion {
+                    launch {
+                        for (kv: Map.Entry<Host, HostInfo> in hostInfoMap) {
+                            if (host != kv.key) {
+                                val receiverThread: ViaductReceiverThread = receiverThreads[kv.key]!!
+                                val senderThread: ViaductSenderThread = senderThreads[kv.key]!!
 
-                            logger.info { "bytes sent to host ${host.name}: ${senderThread.bytesSent}" }
-                            logger.info { "bytes received from host ${host.name}: ${receiverThread.bytesReceived}" }
+                                logger.info { "bytes sent to host ${host.name}: ${senderThread.bytesSent}" }
+                                logger.info { "bytes received from host ${host.name}: ${receiverThread.bytesReceived}" }
 
-                            kv.value.recvChannel.send(ShutdownMessage)
-                            kv.value.sendChannel.send(ShutdownMessage)
+                                kv.value.recvChannel.send(ShutdownMessage)
+                                kv.value.sendChannel.send(ShutdownMessage)
+                            }
                         }
                     }
                 }
             }
+        } finally {
+            dispatchers.forEach { it.close() }
         }
 
         for (kv in connectionMap) {
             logger.info { "closing connection to host ${kv.key.name}" }
             kv.value.close()
         }
+        recording?.close()
+
+        logger.info { "runtime metrics: ${metrics.toJson()}" }
     }
 }
 
@@ -545,22 +893,37 @@ class ViaductProcessRuntime(
     private val runtime: ViaductRuntime,
     val projection: ProtocolProjection,
 ) {
+    /** The identifier of [projection], resolved once rather than for every message. */
+    private val id: ProcessId = runtime.getProcessId(projection)
+
+    /** The identifier of [process], for repeated communication with it through [send] and [receive]. */
+    fun processId(process: ProtocolProjection): ProcessId =
+        runtime.getProcessId(process)
+
     suspend fun send(value: Value, receiver: ProtocolProjection) {
-        runtime.send(value, projection, receiver)
+        send(value, processId(receiver))
+    }
+
+    suspend fun send(value: Value, receiver: ProcessId) {
+        runtime.send(value, id, receiver)
     }
 
     suspend fun send(value: Value, event: CommunicationEvent) {
         assert(event.send.protocol == projection.protocol && event.send.host == projection.host)
-        runtime.send(value, projection, ProtocolProjection(event.recv.protocol, event.recv.host))
+        send(value, event.recv.asProjection())
     }
 
     suspend fun receive(sender: ProtocolProjection): Value {
-        return runtime.receive(sender, projection)
+        return receive(processId(sender))
+    }
+
+    suspend fun receive(sender: ProcessId): Value {
+        return runtime.receive(sender, id)
     }
 
     suspend fun receive(event: CommunicationEvent): Value {
         assert(event.recv.protocol == projection.protocol && event.recv.host == projection.host)
-        return runtime.receive(ProtocolProjection(event.send.protocol, event.send.host), projection)
+        return receive(event.send.asProjection())
     }
 
     suspend fun input(): Value {
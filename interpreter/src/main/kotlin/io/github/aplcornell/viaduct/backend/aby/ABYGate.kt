@@ -23,6 +23,7 @@ import io.github.aplcornell.viaduct.syntax.operators.Negation
 import io.github.aplcornell.viaduct.syntax.operators.Not
 import io.github.aplcornell.viaduct.syntax.operators.Or
 import io.github.aplcornell.viaduct.syntax.operators.Subtraction
+import java.util.Stack
 
 /**
  * A method that adds the gate for an operation with the given arguments to the circuit and returns
@@ -139,6 +140,59 @@ class ABYOperationGate(
 fun ABYCircuitGate.addConversionGates(target: ABYCircuitType) =
     if (this.circuitType == target) this else ABYConversionGate(this, target)
 
+/**
+ * Builds the circuit rooted at this gate bottom-up without recursion, calling [put] on each gate with the values
+ * built for its children. The children's values are passed in reverse order of [ABYCircuitGate.children].
+ *
+ * Gates stored in variables (other than this one) are not expanded; their value is looked up with [variableValue].
+ */
+internal fun <S> ABYCircuitGate.buildCircuit(
+    variableValue: (ABYCircuitGate) -> S,
+    put: (ABYCircuitGate, List<S>) -> S,
+): S {
+    // pre-order traversal of circuit
+    val traverseStack = Stack<ABYCircuitGate>()
+
+    // post-order traversal of circuit
+    val exprStack = Stack<ABYCircuitGate>()
+
+    // values built so far
+    val valueStack = Stack<S>()
+
+    traverseStack.push(this)
+
+    // build post-order traversal
+    while (traverseStack.isNotEmpty()) {
+        val curGate: ABYCircuitGate = traverseStack.pop()!!
+
+        exprStack.push(curGate)
+
+        if (!curGate.variableGate || curGate == this) {
+            for (child: ABYCircuitGate in curGate.children) {
+                traverseStack.push(child)
+            }
+        }
+    }
+
+    // "evaluate" stack as a reverse Polish expression
+    while (exprStack.isNotEmpty()) {
+        val curGate: ABYCircuitGate = exprStack.pop()!!
+
+        if (!curGate.variableGate || curGate == this) {
+            val childValues: MutableList<S> = mutableListOf()
+            for (i in 1..curGate.children.size) {
+                childValues.add(valueStack.pop())
+            }
+            valueStack.push(put(curGate, childValues))
+        } else { // variable gate should already have been processed; retrieve computed value
+            valueStack.push(variableValue(curGate))
+        }
+    }
+
+    assert(valueStack.size == 1)
+    return valueStack.pop()
+}
+
 /** Returns an ABY circuit implementing the given operator. */
 fun operatorToCircuit(
     operator: Operator,
@@ -244,6 +298,7 @@ fun operatorToCircuit(
                 circuitType,
             )
 
+        // child shares arrive reversed (see buildCircuit), so ABY gets PutMUXGate(then, else, guard)
         operator is Mux && circuitType != ABYCircuitType.ARITH ->
             ABYOperationGate(
                 putTernaryOperationGate(Circuit::putMUXGate),
@@ -347,51 +347,20 @@ class ABYProtocolInterpreter(
         variableShareMap: Map<ABYCircuitGate, VariableShare>,
         outGate: ABYCircuitGate,
     ): VariableShare {
-        // pre-order traversal of circuit
-        val traverseStack = Stack<ABYCircuitGate>()
-
-        // post-order traversal of circuit
-        val exprStack = Stack<ABYCircuitGate>()
-
-        // actual ABY circuit
-        val shareStack = Stack<Share>()
-
-        traverseStack.push(outGate)
-
-        // build post-order traversal
-        while (traverseStack.isNotEmpty()) {
-            val curGate: ABYCircuitGate = traverseStack.pop()!!
-
-            exprStack.push(curGate)
-
-            if (!curGate.variableGate || curGate == outGate) {
-                for (child: ABYCircuitGate in curGate.children) {
-                    traverseStack.push(child)
-                }
-            }
-        }
-
-        val size = exprStack.size
-
-        // "evaluate" stack as a reverse Polish expression by building the ABY circuit
-        while (exprStack.isNotEmpty()) {
-            val curGate: ABYCircuitGate = exprStack.pop()!!
-
-            if (!curGate.variableGate || curGate == outGate) {
-                val numChildren = curGate.children.size
-                val childrenShares: MutableList<Share> = mutableListOf()
-                for (i in 1..numChildren) {
-                    childrenShares.add(shareStack.pop())
-                }
-                val share = curGate.putGate(circuitBuilder, childrenShares)
-                shareStack.push(share)
-            } else { // variable gate should already have been processed; retrieve computed share
-                shareStack.push(variableShareMap[curGate]!!.share)
-            }
-        }
-
-        assert(shareStack.size == 1)
-        return VariableShare(shareStack.pop(), size)
+        // number of gates traversed, including variable gates built earlier
+        var size = 0
+        val share =
+            outGate.buildCircuit(
+                variableValue = { gate ->
+                    size++
+                    variableShareMap[gate]!!.share
+                },
+                put = { gate, childShares ->
+                    size++
+                    gate.putGate(circuitBuilder, childShares)
+                },
+            )
+        return VariableShare(share, size)
     }
 
     private fun computeVariableCircuitMap(
@@ -5,6 +5,8 @@ import io.github.aplcornell.viaduct.backend.ImmutableCellObject
 import io.github.aplcornell.viaduct.backend.MutableCellObject
 import io.github.aplcornell.viaduct.backend.NullObject
 import io.github.aplcornell.viaduct.backend.VectorObject
+import io.github.aplcornell.viaduct.runtime.commitment.NonceSource
+import io.github.aplcornell.viaduct.runtime.commitment.nextBytes
 import io.github.aplcornell.viaduct.syntax.values.BooleanValue
 import io.github.aplcornell.viaduct.syntax.values.ByteVecValue
 import io.github.aplcornell.viaduct.syntax.values.IntegerValue
@@ -12,7 +14,6 @@ import io.github.aplcornell.viaduct.syntax.values.StringValue
 import io.github.aplcornell.viaduct.syntax.values.UnitValue
 import io.github.aplcornell.viaduct.syntax.values.Value
 import java.security.MessageDigest
-import java.security.SecureRandom
 
 data class HashInfo(val hash: List<Byte>, val nonce: List<Byte>) {
     fun verify(data: List<Byte>): Boolean {
@@ -46,16 +47,12 @@ fun CleartextClassObject.encode(): List<Byte> {
     }
 }
 
-fun genNonce(width: Int): List<Byte> {
-    val nonce = ByteArray(width)
-    SecureRandom().nextBytes(nonce)
-    return nonce.toList()
-}
+fun genNonce(width: Int): List<Byte> =
+    NonceSource.default.nextBytes(width).toList()
 
 object Hashing {
     private fun generateHash(data: List<Byte>): HashInfo {
-        val nonce = ByteArray(16)
-        SecureRandom().nextBytes(nonce)
+        val nonce = NonceSource.default.nextBytes(16)
         return HashInfo(
             MessageDigest.getInstance("SHA-256").digest(nonce + data.toByteArray()).toList(),
             nonce.toList(),
@@ -0,0 +1,69 @@
+package io.github.aplcornell.viaduct.backend.aby
+
+import io.github.apl_cornell.aby.Circuit
+import io.github.apl_cornell.aby.Share
+import io.github.aplcornell.viaduct.syntax.Operator
+import io.github.aplcornell.viaduct.syntax.operators.LessThan
+import io.github.aplcornell.viaduct.syntax.operators.Mux
+import io.github.aplcornell.viaduct.syntax.operators.Subtraction
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+/** Checks that operators reach ABY with their arguments in the order ABY expects. */
+internal class ABYGateTest {
+    private class FakeShare(val value: Int) : Share(0, false)
+
+    /** Evaluates gates on plain integers, following ABY's argument conventions. */
+    private object FakeCircuit : Circuit(0, false) {
+        private val Share.value: Int
+            get() = (this as FakeShare).value
+
+        // PutMUXGate(ina, inb, sel) is ina if sel is set, and inb otherwise.
+        override fun putMUXGate(ina: Share, inb: Share, sel: Share): Share =
+            if (sel.value != 0) ina else inb
+
+        override fun putSUBGate(ina: Share, inb: Share): Share =
+            FakeShare(ina.value - inb.value)
+
+        override fun putGTGate(ina: Share, inb: Share): Share =
+            FakeShare(if (ina.value > inb.value) 1 else 0)
+    }
+
+    private fun evaluate(operator: Operator, vararg arguments: Int): Int {
+        val circuitType = ABYCircuitType.YAO
+        val gate = operatorToCircuit(operator, arguments.map { ABYConstantGate(it, circuitType) }, circuitType)
+        val share =
+            gate.buildCircuit<Share>(
+                variableValue = { throw AssertionError("no variables expected") },
+                put = { g, childShares ->
+                    when (g) {
+                        is ABYConstantGate -> FakeShare(g.value)
+                        is ABYOperationGate -> FakeCircuit.(g.operation)(childShares)
+                        else -> throw AssertionError("unexpected gate $g")
+                    }
+                },
+            )
+        return (share as FakeShare).value
+    }
+
+    @Test
+    fun `mux selects its second argument when the guard is true`() {
+        assertEquals(20, evaluate(Mux, 1, 20, 30))
+    }
+
+    @Test
+    fun `mux selects its third argument when the guard is false`() {
+        assertEquals(30, evaluate(Mux, 0, 20, 30))
+    }
+
+    @Test
+    fun `subtraction keeps its operands in order`() {
+        assertEquals(7, evaluate(Subtraction, 10, 3))
+    }
+
+    @Test
+    fun `less than keeps its operands in order`() {
+        assertEquals(1, evaluate(LessThan, 3, 10))
+        assertEquals(0, evaluate(LessThan, 10, 3))
+    }
+}
@@ -12,7 +12,8 @@ dependencies {
     implementation(libs.kotlinx.coroutines.core)
 
     // Networking
-    implementation(libs.kotlinx.serialization.protobuf)
+    // Serializers appear in the public NetworkStrategy API.
+    api(libs.kotlinx.serialization.protobuf)
 
     // Cryptography
     api(libs.aby.java)
@@ -0,0 +1,52 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.nio.ByteBuffer
+
+/**
+ * Reusable heap buffers for incoming frames, grouped into power-of-two size classes.
+ *
+ * Frames larger than [MAX_POOLED_SIZE] get a fresh buffer that is dropped on release.
+ * Not thread-safe; each network strategy keeps its own pool for its receiving thread.
+ */
+internal class BufferPool {
+    companion object {
+        const val MIN_POOLED_SIZE: Int = 256
+        const val MAX_POOLED_SIZE: Int = 1024 * 1024
+
+        /** Number of idle buffers kept per size class. */
+        private const val BUFFERS_PER_CLASS: Int = 4
+
+        private val MIN_CLASS = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE)
+        private val MAX_CLASS = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE)
+    }
+
+    private val classes = Array(MAX_CLASS - MIN_CLASS + 1) { ArrayDeque<ByteBuffer>(BUFFERS_PER_CLASS) }
+
+    private fun sizeClass(size: Int): Int =
+        if (size <= MIN_POOLED_SIZE) 0 else 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS
+
+    /** Returns a buffer whose limit is exactly [size] bytes. */
+    fun acquire(size: Int): ByteBuffer {
+        if (size > MAX_POOLED_SIZE) {
+            return ByteBuffer.allocate(size)
+        }
+
+        val sizeClass = sizeClass(size)
+        val buffer = classes[sizeClass].removeLastOrNull() ?: ByteBuffer.allocate(1 shl (sizeClass + MIN_CLASS))
+        buffer.clear().limit(size)
+        return buffer
+    }
+
+    /** Returns [buffer] to the pool. The buffer must not be used afterwards. */
+    fun release(buffer: ByteBuffer) {
+        val capacity = buffer.capacity()
+        if (capacity > MAX_POOLED_SIZE || capacity < MIN_POOLED_SIZE || capacity.countOneBits() != 1) {
+            return
+        }
+
+        val pool = classes[sizeClass(capacity)]
+        if (pool.size < BUFFERS_PER_CLASS) {
+            pool.addLast(buffer)
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * Computes delays between attempts to connect to a host that may not be listening yet.
+ *
+ * Delays start at [INITIAL_DELAY] milliseconds and double after each attempt up to [maxDelay],
+ * with random jitter so hosts that start together do not retry in lockstep.
+ * Gives up once [timeout] milliseconds have passed since construction.
+ */
+class ConnectionBackoff(private val maxDelay: Long, timeout: Long) {
+    companion object {
+        const val INITIAL_DELAY: Long = 2
+    }
+
+    private val deadline = System.nanoTime() + timeout * 1_000_000
+
+    private var delay = minOf(INITIAL_DELAY, maxDelay)
+
+    /** Returns how long to wait before the next attempt in milliseconds, or null if it is time to give up. */
+    fun nextDelay(): Long? {
+        val remaining = (deadline - System.nanoTime()) / 1_000_000
+        if (remaining <= 0) {
+            return null
+        }
+
+        val jittered = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1)
+        delay = minOf(delay * 2, maxDelay)
+        return minOf(jittered, remaining)
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.security.MessageDigest
+import kotlin.reflect.KType
+import kotlin.reflect.typeOf
+
+/** Size in bytes of the values returned by [digest]. */
+const val DIGEST_SIZE: Int = 32
+
+private val digestState = ThreadLocal.withInitial { Pair(FrameBuffer(), MessageDigest.getInstance("SHA-256")) }
+
+/**
+ * Returns a collision-resistant digest of [value], which has type [type].
+ *
+ * The digest covers the wire encoding of [value], so replicas that would send the same bytes
+ * compute the same digest.
+ */
+fun <T> digest(type: KType, value: T): ByteArray {
+    val (buffer, messageDigest) = digestState.get()
+    buffer.clear()
+    wireCodecFor<T>(type).encode(value, buffer)
+    messageDigest.update(buffer.array(), 0, buffer.size)
+    return messageDigest.digest()
+}
+
+/** Returns a collision-resistant digest of [value]. */
+inline fun <reified T> digest(value: T): ByteArray =
+    digest(typeOf<T>(), value)
@@ -0,0 +1,44 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.types.BooleanType
+import io.github.aplcornell.viaduct.syntax.types.IntegerType
+import io.github.aplcornell.viaduct.syntax.types.UnitType
+import io.github.aplcornell.viaduct.syntax.types.ValueType
+
+/** How a host checks that all replicas of a value sent it the same thing. */
+enum class EquivocationCheck {
+    /** Every replica sends the full value. */
+    FULL_VALUE,
+
+    /** One designated replica sends the full value and the others only send its [digest]. */
+    DIGEST,
+}
+
+/**
+ * Returns how values whose encoding takes at most [maxEncodedSize] bytes are checked for equivocation.
+ * A `null` size means values can be arbitrarily large.
+ *
+ * Digests only pay off when they are smaller than the values themselves.
+ */
+fun equivocationCheckFor(maxEncodedSize: Long?): EquivocationCheck =
+    if (maxEncodedSize != null && maxEncodedSize <= DIGEST_SIZE) {
+        EquivocationCheck.FULL_VALUE
+    } else {
+        EquivocationCheck.DIGEST
+    }
+
+/**
+ * The most bytes the wire encoding of a value of this type can take,
+ * or `null` if values of this type can be arbitrarily large.
+ */
+val ValueType.maxEncodedSize: Long?
+    get() = when (this) {
+        UnitType -> 0
+        BooleanType -> 1
+        IntegerType -> Int.SIZE_BYTES.toLong()
+        else -> null
+    }
+
+/** Returns how replicated values of this type are checked for equivocation. */
+val ValueType.equivocationCheck: EquivocationCheck
+    get() = equivocationCheckFor(maxEncodedSize)
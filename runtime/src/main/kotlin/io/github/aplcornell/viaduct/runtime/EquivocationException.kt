@@ -1,6 +1,7 @@
 package io.github.aplcornell.viaduct.runtime
 
 import io.github.aplcornell.viaduct.syntax.Host
+import java.security.MessageDigest
 
 /** Thrown when a [Host] catches the attacker trying to equivocate. */
 class EquivocationException private constructor(
@@ -31,5 +32,25 @@ class EquivocationException private constructor(
                 throw EquivocationException(expectedValue, expectedValueProvider, actualValue, actualValueProvider)
             }
         }
+
+        /** Throws [EquivocationException] if the [digest]s of two values do not match. */
+        fun assertDigestEquals(
+            expectedDigest: ByteArray,
+            expectedValueProvider: Host,
+            actualDigest: ByteArray,
+            actualValueProvider: Host,
+        ) {
+            if (!MessageDigest.isEqual(expectedDigest, actualDigest)) {
+                throw EquivocationException(
+                    "digest ${expectedDigest.toHex()}",
+                    expectedValueProvider,
+                    "digest ${actualDigest.toHex()}",
+                    actualValueProvider,
+                )
+            }
+        }
+
+        private fun ByteArray.toHex(): String =
+            joinToString("") { "%02x".format(it) }
     }
 }
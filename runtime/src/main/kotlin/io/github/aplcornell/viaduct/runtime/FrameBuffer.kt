@@ -0,0 +1,60 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.nio.ByteBuffer
+
+/**
+ * A growable, reusable heap buffer that outgoing frames are encoded into.
+ *
+ * Each frame is a 4-byte big-endian length followed by the payload written by a [WireEncoder].
+ */
+class FrameBuffer(initialCapacity: Int = DEFAULT_CAPACITY) {
+    companion object {
+        const val DEFAULT_CAPACITY: Int = 4 * 1024
+
+        /** Size in bytes of the length prefix at the start of each frame. */
+        const val HEADER_SIZE: Int = Int.SIZE_BYTES
+
+        /** Largest payload a peer may announce. Longer (or negative) lengths mean the stream is corrupt. */
+        const val MAX_PAYLOAD_SIZE: Int = 1 shl 28
+    }
+
+    /** The underlying buffer in write mode. Replaced by a larger buffer when it fills up. */
+    var byteBuffer: ByteBuffer = ByteBuffer.allocate(initialCapacity)
+        private set
+
+    /** Number of bytes written so far. */
+    val size: Int
+        get() = byteBuffer.position()
+
+    /** The backing array; only the first [size] bytes are meaningful. */
+    fun array(): ByteArray =
+        byteBuffer.array()
+
+    /** Makes room for at least [bytes] more bytes and returns the buffer to write them to. */
+    fun reserve(bytes: Int): ByteBuffer {
+        if (byteBuffer.remaining() < bytes) {
+            val grown = ByteBuffer.allocate(maxOf(byteBuffer.capacity() * 2, byteBuffer.position() + bytes))
+            byteBuffer.flip()
+            grown.put(byteBuffer)
+            byteBuffer = grown
+        }
+        return byteBuffer
+    }
+
+    /** Starts a new frame and returns its offset, to be passed to [endFrame]. */
+    fun beginFrame(): Int {
+        val start = size
+        reserve(HEADER_SIZE).putInt(0)
+        return start
+    }
+
+    /** Fills in the length of the frame that started at [start]. */
+    fun endFrame(start: Int) {
+        byteBuffer.putInt(start, size - start - HEADER_SIZE)
+    }
+
+    /** Discards all written bytes. */
+    fun clear() {
+        byteBuffer.clear()
+    }
+}
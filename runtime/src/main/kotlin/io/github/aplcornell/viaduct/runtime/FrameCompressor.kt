@@ -0,0 +1,76 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Compresses the payloads of large frames with [Lz4].
+ *
+ * Only payloads of at least [threshold] bytes are compressed, and only if that makes them smaller,
+ * so scalars and other small messages are sent as they are.
+ * A compressed frame has [COMPRESSED] set in its length prefix,
+ * and its payload is the uncompressed size followed by the compressed bytes.
+ *
+ * Not thread-safe; [compress] must only be called from the sending thread.
+ */
+internal class FrameCompressor(private val threshold: Int = DEFAULT_THRESHOLD) {
+    companion object {
+        /** Flag set in the length prefix of compressed frames. */
+        const val COMPRESSED: Int = Int.MIN_VALUE
+
+        /** Default size in bytes above which payloads are compressed. */
+        const val DEFAULT_THRESHOLD: Int = 1024
+
+        /** Decompresses [payload], the payload of a frame flagged [COMPRESSED], into a buffer from [pool]. */
+        fun decompress(payload: ByteBuffer, pool: BufferPool): ByteBuffer {
+            if (payload.remaining() < Int.SIZE_BYTES) {
+                throw IOException("Malformed compressed frame.")
+            }
+            val length = payload.getInt()
+            if (length !in 0..FrameBuffer.MAX_PAYLOAD_SIZE) {
+                throw IOException("Malformed compressed frame.")
+            }
+
+            val output = pool.acquire(length)
+            try {
+                Lz4.decompress(payload.array(), payload.position(), payload.remaining(), output.array(), 0, length)
+            } catch (e: IOException) {
+                pool.release(output)
+                throw e
+            }
+            return output
+        }
+    }
+
+    private val table = IntArray(Lz4.HASH_TABLE_SIZE)
+
+    private var scratch = ByteArray(0)
+
+    /**
+     * Compresses the frame that starts at [start] and runs to the end of [buffer] in place.
+     * Returns `true` if the frame was compressed.
+     */
+    fun compress(buffer: FrameBuffer, start: Int): Boolean {
+        val payloadStart = start + FrameBuffer.HEADER_SIZE
+        val length = buffer.size - payloadStart
+        if (length < threshold) {
+            return false
+        }
+
+        val maxCompressedSize = Lz4.maxCompressedSize(length)
+        if (scratch.size < maxCompressedSize) {
+            scratch = ByteArray(maxCompressedSize)
+        }
+        val compressedSize = Lz4.compress(buffer.array(), payloadStart, length, scratch, 0, table)
+        if (Int.SIZE_BYTES + compressedSize >= length) {
+            return false
+        }
+
+        // The compressed payload is smaller, so it fits where the original was.
+        val bytes = buffer.byteBuffer
+        bytes.position(payloadStart)
+        bytes.putInt(length).put(scratch, 0, compressedSize)
+        bytes.putInt(start, (Int.SIZE_BYTES + compressedSize) or COMPRESSED)
+        return true
+    }
+}
@@ -2,10 +2,11 @@ package io.github.aplcornell.viaduct.runtime
 
 import io.github.aplcornell.viaduct.syntax.Host
 
-class HostCommunicationException(host: Host, otherHost: Host) : ViaductRuntimeException(
+class HostCommunicationException(host: Host, otherHost: Host, cause: Throwable? = null) : ViaductRuntimeException(
     if (host == otherHost) {
         "Runtime for host ${host.name} cannot send/receive data to/from itself."
     } else {
         "Runtime for host ${host.name} cannot send/receive data to/from host ${otherHost.name}."
     },
+    cause,
 )
@@ -0,0 +1,85 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.nanoseconds
+
+/** Measurements taken while running [host]'s part of a program. */
+data class HostRunReport(
+    val host: Host,
+    val wallTime: Duration,
+    val messagesSent: Long,
+    val bytesSent: Long,
+    val messagesReceived: Long,
+    val bytesReceived: Long,
+) {
+    override fun toString(): String =
+        "${host.name}: $wallTime, sent $messagesSent messages ($bytesSent bytes), " +
+            "received $messagesReceived messages ($bytesReceived bytes)"
+}
+
+/**
+ * Runs every host of this program on its own thread in the current process,
+ * connecting them through a [LoopbackNetwork].
+ *
+ * If any host fails, the others are interrupted and the first failure is rethrown.
+ *
+ * @param networkProfile if given, emulates a network with these characteristics between every pair of hosts.
+ * @param ioStrategy creates the input/output handler for each host.
+ */
+fun ViaductGeneratedProgram.runInProcess(
+    networkProfile: NetworkProfile? = null,
+    ioStrategy: (Host) -> IOStrategy,
+): Map<Host, HostRunReport> {
+    val network = LoopbackNetwork(hosts)
+    val emulator = networkProfile?.let { NetworkEmulator(it) }
+    val endpoints = hosts.associateWith { network.strategy(it) }
+    val wallTimes = mutableMapOf<Host, Duration>()
+    val failures = ConcurrentLinkedQueue<Throwable>()
+    val threads = mutableListOf<Thread>()
+
+    for (host in hosts.sorted()) {
+        val endpoint = endpoints.getValue(host)
+        val networkStrategy = emulator?.emulate(host, endpoint) ?: endpoint
+        val runtime = CombinedRuntime(ioStrategy(host), networkStrategy)
+        threads += Thread({
+            try {
+                val start = System.nanoTime()
+                main(host, runtime)
+                val wallTime = (System.nanoTime() - start).nanoseconds
+
+                synchronized(wallTimes) {
+                    wallTimes[host] = wallTime
+                }
+            } catch (e: Throwable) {
+                failures.add(e)
+                // Peers blocked on this host would otherwise wait forever.
+                threads.filter { it != Thread.currentThread() }.forEach { it.interrupt() }
+            }
+        }, "viaduct-${host.name}")
+    }
+
+    threads.forEach { it.start() }
+    threads.forEach { it.join() }
+
+    // Traffic counters are only final once every message in flight has been delivered.
+    emulator?.close()
+
+    failures.firstOrNull { it !is InterruptedException }?.let { throw it }
+    failures.firstOrNull()?.let { throw it }
+
+    return synchronized(wallTimes) {
+        wallTimes.mapValues { (host, wallTime) ->
+            val endpoint = endpoints.getValue(host)
+            HostRunReport(
+                host,
+                wallTime,
+                endpoint.messagesSent,
+                endpoint.bytesSent,
+                endpoint.messagesReceived,
+                endpoint.bytesReceived,
+            )
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+
+/**
+ * Records the traffic that goes through [network] in [metrics].
+ *
+ * Sizes are payload sizes as produced by the codecs, so they do not include framing or compression.
+ * Time blocked in [receive] covers waiting for and reading the message, but not decoding it.
+ *
+ * Like the strategies it wraps, this must only be used from a single thread.
+ */
+class InstrumentedNetworkStrategy(
+    private val network: NetworkStrategy,
+    val metrics: RuntimeMetrics,
+) : NetworkStrategy {
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {
+        val measuringEncoder = MeasuringEncoder(codec)
+        network.send(measuringEncoder, value, receiver)
+        metrics.peer(receiver).sent.record(measuringEncoder.size)
+    }
+
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+        val measuringEncoder = MeasuringEncoder(codec)
+        network.broadcast(measuringEncoder, value, receivers)
+        for (receiver in receivers) {
+            metrics.peer(receiver).sent.record(measuringEncoder.size)
+        }
+    }
+
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T {
+        val measuringDecoder = MeasuringDecoder(codec)
+        val start = System.nanoTime()
+        val value = network.receive(measuringDecoder, sender)
+
+        val peer = metrics.peer(sender)
+        peer.received.record(measuringDecoder.size)
+        peer.recordBlocked(measuringDecoder.decodeStart - start)
+        return value
+    }
+
+    override fun flush(receiver: Host) =
+        network.flush(receiver)
+
+    override fun flushAll() =
+        network.flushAll()
+
+    override fun url(host: Host): InetSocketAddress =
+        network.url(host)
+
+    /** Remembers the size of the last payload produced by [encoder]. */
+    private class MeasuringEncoder<T>(private val encoder: WireEncoder<T>) : WireEncoder<T> {
+        var size: Int = 0
+            private set
+
+        override fun encode(value: T, output: FrameBuffer) {
+            val start = output.size
+            encoder.encode(value, output)
+            size = output.size - start
+        }
+    }
+
+    /** Remembers the size of the last payload that went through [decoder], and when decoding started. */
+    private class MeasuringDecoder<T>(private val decoder: WireDecoder<T>) : WireDecoder<T> {
+        var size: Int = 0
+            private set
+
+        var decodeStart: Long = 0
+            private set
+
+        override fun decode(input: ByteBuffer): T {
+            decodeStart = System.nanoTime()
+            size = input.remaining()
+            return decoder.decode(input)
+        }
+    }
+}
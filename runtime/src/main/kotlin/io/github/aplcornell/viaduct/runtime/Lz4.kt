@@ -0,0 +1,243 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.io.IOException
+
+/**
+ * Fast block compression in the LZ4 block format.
+ *
+ * The compressor is a greedy single-pass matcher with a small hash table,
+ * which trades some compression ratio for speed, as LZ4's fast mode does.
+ */
+internal object Lz4 {
+    private const val HASH_LOG: Int = 12
+
+    /** Size of the hash table that [compress] needs. */
+    const val HASH_TABLE_SIZE: Int = 1 shl HASH_LOG
+
+    private const val MIN_MATCH: Int = 4
+
+    /** The last bytes of the input are always literals. */
+    private const val LAST_LITERALS: Int = 5
+
+    /** Matches may not start in the last bytes of the input. */
+    private const val MATCH_FIND_LIMIT: Int = 12
+
+    private const val MAX_OFFSET: Int = 65535
+
+    /** Misses needed before the matcher starts skipping ahead in incompressible input. */
+    private const val SKIP_TRIGGER: Int = 6
+
+    /** Returns the largest size that [compress] can produce for [length] bytes of input. */
+    fun maxCompressedSize(length: Int): Int =
+        length + length / 255 + 16
+
+    /**
+     * Compresses [length] bytes of [source] starting at [sourceOffset] into [destination] at [destinationOffset],
+     * and returns the number of bytes written.
+     *
+     * [destination] must have room for [maxCompressedSize] bytes,
+     * and [table] must have [HASH_TABLE_SIZE] entries. Its contents are overwritten.
+     */
+    fun compress(
+        source: ByteArray,
+        sourceOffset: Int,
+        length: Int,
+        destination: ByteArray,
+        destinationOffset: Int,
+        table: IntArray,
+    ): Int {
+        val sourceEnd = sourceOffset + length
+        val matchLimit = sourceEnd - LAST_LITERALS
+        val matchFindLimit = sourceEnd - MATCH_FIND_LIMIT
+
+        var anchor = sourceOffset
+        var input = sourceOffset
+        var output = destinationOffset
+
+        table.fill(-1)
+        var misses = 0
+        while (input < matchFindLimit) {
+            val sequence = readInt(source, input)
+            val hash = hash(sequence)
+            val reference = table[hash]
+            table[hash] = input
+
+            if (reference < 0 || input - reference > MAX_OFFSET || readInt(source, reference) != sequence) {
+                misses++
+                input += 1 + (misses ushr SKIP_TRIGGER)
+                continue
+            }
+            misses = 0
+
+            // Extend the match backwards over literals, then forwards.
+            var matchStart = input
+            var referenceStart = reference
+            while (matchStart > anchor && referenceStart > sourceOffset &&
+                source[matchStart - 1] == source[referenceStart - 1]
+            ) {
+                matchStart--
+                referenceStart--
+            }
+            var matchEnd = input + MIN_MATCH
+            var referenceEnd = reference + MIN_MATCH
+            while (matchEnd < matchLimit && source[matchEnd] == source[referenceEnd]) {
+                matchEnd++
+                referenceEnd++
+            }
+
+            output = writeSequence(
+                source,
+                anchor,
+                matchStart - anchor,
+                matchStart - referenceStart,
+                matchEnd - matchStart,
+                destination,
+                output,
+            )
+            input = matchEnd
+            anchor = matchEnd
+        }
+
+        output = writeLiterals(source, anchor, sourceEnd - anchor, destination, output)
+        return output - destinationOffset
+    }
+
+    /**
+     * Decompresses [length] bytes of [source] starting at [sourceOffset] into exactly [decompressedLength] bytes
+     * of [destination] starting at [destinationOffset].
+     *
+     * @throws IOException if the input is malformed.
+     */
+    fun decompress(
+        source: ByteArray,
+        sourceOffset: Int,
+        length: Int,
+        destination: ByteArray,
+        destinationOffset: Int,
+        decompressedLength: Int,
+    ) {
+        val sourceEnd = sourceOffset + length
+        val destinationEnd = destinationOffset + decompressedLength
+
+        var input = sourceOffset
+        var output = destinationOffset
+        while (true) {
+            if (input >= sourceEnd) malformed()
+            val token = source[input++].toInt() and 0xFF
+
+            var literalLength = token ushr 4
+            if (literalLength == 15) {
+                do {
+                    if (input >= sourceEnd) malformed()
+                    val extra = source[input++].toInt() and 0xFF
+                    literalLength += extra
+                    // Stop before a long run of extension bytes can overflow the length.
+                    if (literalLength > destinationEnd - output) malformed()
+                } while (extra == 255)
+            }
+            if (literalLength > sourceEnd - input || literalLength > destinationEnd - output) malformed()
+            System.arraycopy(source, input, destination, output, literalLength)
+            input += literalLength
+            output += literalLength
+
+            // The last sequence only has literals.
+            if (input == sourceEnd) break
+
+            if (sourceEnd - input < 2) malformed()
+            val offset = (source[input].toInt() and 0xFF) or ((source[input + 1].toInt() and 0xFF) shl 8)
+            input += 2
+
+            var matchLength = token and 0x0F
+            if (matchLength == 15) {
+                do {
+                    if (input >= sourceEnd) malformed()
+                    val extra = source[input++].toInt() and 0xFF
+                    matchLength += extra
+                    if (matchLength > destinationEnd - output) malformed()
+                } while (extra == 255)
+            }
+            matchLength += MIN_MATCH
+
+            if (offset == 0 || offset > output - destinationOffset || matchLength > destinationEnd - output) {
+                malformed()
+            }
+            val reference = output - offset
+            if (offset >= matchLength) {
+                System.arraycopy(destination, reference, destination, output, matchLength)
+            } else {
+                // Overlapping matches repeat the bytes just written.
+                for (i in 0 until matchLength) {
+                    destination[output + i] = destination[reference + i]
+                }
+            }
+            output += matchLength
+        }
+
+        if (output != destinationEnd) malformed()
+    }
+
+    private fun writeSequence(
+        source: ByteArray,
+        literalStart: Int,
+        literalLength: Int,
+        offset: Int,
+        matchLength: Int,
+        destination: ByteArray,
+        destinationOffset: Int,
+    ): Int {
+        val extraMatchLength = matchLength - MIN_MATCH
+        destination[destinationOffset] = ((minOf(literalLength, 15) shl 4) or minOf(extraMatchLength, 15)).toByte()
+        var output = destinationOffset + 1
+        if (literalLength >= 15) {
+            output = writeLength(literalLength - 15, destination, output)
+        }
+        System.arraycopy(source, literalStart, destination, output, literalLength)
+        output += literalLength
+
+        destination[output++] = offset.toByte()
+        destination[output++] = (offset ushr 8).toByte()
+        if (extraMatchLength >= 15) {
+            output = writeLength(extraMatchLength - 15, destination, output)
+        }
+        return output
+    }
+
+    private fun writeLiterals(
+        source: ByteArray,
+        literalStart: Int,
+        literalLength: Int,
+        destination: ByteArray,
+        destinationOffset: Int,
+    ): Int {
+        destination[destinationOffset] = (minOf(literalLength, 15) shl 4).toByte()
+        var output = destinationOffset + 1
+        if (literalLength >= 15) {
+            output = writeLength(literalLength - 15, destination, output)
+        }
+        System.arraycopy(source, literalStart, destination, output, literalLength)
+        return output + literalLength
+    }
+
+    private fun writeLength(length: Int, destination: ByteArray, destinationOffset: Int): Int {
+        var remaining = length
+        var output = destinationOffset
+        while (remaining >= 255) {
+            destination[output++] = 255.toByte()
+            remaining -= 255
+        }
+        destination[output++] = remaining.toByte()
+        return output
+    }
+
+    private fun readInt(bytes: ByteArray, offset: Int): Int =
+        (bytes[offset].toInt() and 0xFF) or
+            ((bytes[offset + 1].toInt() and 0xFF) shl 8) or
+            ((bytes[offset + 2].toInt() and 0xFF) shl 16) or
+            ((bytes[offset + 3].toInt() and 0xFF) shl 24)
+
+    private fun hash(sequence: Int): Int =
+        (sequence * -1640531535) ushr (Int.SIZE_BITS - HASH_LOG)
+
+    private fun malformed(): Nothing =
+        throw IOException("Malformed compressed frame.")
+}
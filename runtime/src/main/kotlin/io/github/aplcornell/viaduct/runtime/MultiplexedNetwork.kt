@@ -0,0 +1,94 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+
+/** Identifies a logical stream between a pair of hosts. Both ends must agree on stream identifiers. */
+typealias StreamId = Int
+
+/**
+ * Carries any number of independent logical streams over the single connection [network] keeps for each host pair.
+ *
+ * Every frame is tagged with its [StreamId]. When receiving on a stream, frames that arrive for other streams
+ * are set aside until those streams are read, so messages need not be consumed in the order they were sent.
+ * Order is preserved within each stream.
+ *
+ * Like the strategies it wraps, the multiplexer must only be used from a single thread.
+ */
+class MultiplexedNetwork(private val network: NetworkStrategy) {
+    private companion object {
+        /** Returned by [Demultiplexer] for frames that belong to a different stream. */
+        val OTHER_STREAM = Any()
+    }
+
+    /** Payloads that arrived before anyone asked for them, keyed by sender and stream. */
+    private val pending = mutableMapOf<Pair<Host, StreamId>, ArrayDeque<ByteArray>>()
+
+    /** Returns a view of [network] that only sends and receives messages on [stream]. */
+    fun stream(stream: StreamId): NetworkStrategy =
+        Stream(stream)
+
+    private inner class Stream(private val stream: StreamId) : NetworkStrategy {
+        override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) =
+            network.send(TaggedEncoder(stream, codec), value, receiver)
+
+        override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) =
+            network.broadcast(TaggedEncoder(stream, codec), value, receivers)
+
+        override fun <T> receive(codec: WireDecoder<T>, sender: Host): T {
+            pending[Pair(sender, stream)]?.removeFirstOrNull()?.let {
+                return codec.decode(ByteBuffer.wrap(it))
+            }
+
+            val demux = Demultiplexer(sender, stream, codec)
+            while (true) {
+                val value = network.receive(demux, sender)
+                if (value !== OTHER_STREAM) {
+                    @Suppress("UNCHECKED_CAST")
+                    return value as T
+                }
+            }
+        }
+
+        override fun flush(receiver: Host) =
+            network.flush(receiver)
+
+        override fun flushAll() =
+            network.flushAll()
+
+        override fun url(host: Host): InetSocketAddress =
+            network.url(host)
+    }
+
+    /** Prefixes the encoding of [encoder] with [stream]. */
+    private class TaggedEncoder<T>(private val stream: StreamId, private val encoder: WireEncoder<T>) : WireEncoder<T> {
+        override fun encode(value: T, output: FrameBuffer) {
+            output.reserve(Int.SIZE_BYTES).putInt(stream)
+            encoder.encode(value, output)
+        }
+    }
+
+    /**
+     * Decodes frames for [stream] in place using [decoder], and copies frames for other streams into [pending].
+     * Returns [OTHER_STREAM] for frames that belong to other streams.
+     */
+    private inner class Demultiplexer<T>(
+        private val sender: Host,
+        private val stream: StreamId,
+        private val decoder: WireDecoder<T>,
+    ) : WireDecoder<Any?> {
+        override fun decode(input: ByteBuffer): Any? {
+            val frameStream = input.getInt()
+            if (frameStream == stream) {
+                return decoder.decode(input)
+            }
+
+            // The input buffer may be reused once we return, so the payload has to be copied out.
+            val payload = ByteArray(input.remaining())
+            input.get(payload)
+            pending.getOrPut(Pair(sender, frameStream)) { ArrayDeque() }.addLast(payload)
+            return OTHER_STREAM
+        }
+    }
+}
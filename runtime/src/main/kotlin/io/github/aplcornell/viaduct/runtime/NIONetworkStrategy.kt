@@ -0,0 +1,459 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import mu.KotlinLogging
+import java.io.Closeable
+import java.io.IOException
+import java.net.ConnectException
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.SelectionKey
+import java.nio.channels.Selector
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.LinkedBlockingQueue
+
+private var logger = KotlinLogging.logger("Runtime")
+
+/** Placed in an inbound queue once the remote host closes its end of the connection. */
+private val CONNECTION_CLOSED = ByteArray(0)
+
+/**
+ * A non-blocking connection to [host].
+ *
+ * Frames are a 4-byte big-endian length followed by that many payload bytes.
+ * All methods except those touching [inbound] and [outbound] must be called from the event loop thread.
+ */
+private class NIOHostConnection(val host: Host, val channel: SocketChannel) : Closeable by channel {
+    /** Complete payloads received from [host] that have not been consumed yet. */
+    val inbound = LinkedBlockingQueue<ByteArray>()
+
+    /** Payloads waiting to be written to [host]. */
+    val outbound = ConcurrentLinkedQueue<ByteArray>()
+
+    private val readBuffer: ByteBuffer = ByteBuffer.allocateDirect(NIONetworkStrategy.BUFFER_SIZE)
+    private val writeBuffer: ByteBuffer = ByteBuffer.allocateDirect(NIONetworkStrategy.BUFFER_SIZE).flip()
+
+    /** Inbound frame currently being assembled, and the number of its bytes received so far. */
+    private var partialFrame: ByteArray? = null
+    private var partialFrameOffset = 0
+
+    /** Outbound frame currently being copied into [writeBuffer], and the number of its bytes copied so far. */
+    private var pendingFrame: ByteArray? = null
+    private var pendingFrameOffset = 0
+
+    /** Set once the connection has failed and been closed. Nothing more is read from or written to it. */
+    @Volatile
+    var failed = false
+
+    /** True if all queued payloads have been handed to the operating system, or will never be. */
+    val isDrained: Boolean
+        get() = failed || (outbound.isEmpty() && pendingFrame == null && !writeBuffer.hasRemaining())
+
+    /** Reads available bytes and queues every completed frame. Returns false once the stream has ended. */
+    fun read(): Boolean {
+        val count = channel.read(readBuffer)
+        readBuffer.flip()
+        while (true) {
+            val frame = partialFrame ?: if (readBuffer.remaining() >= Int.SIZE_BYTES) {
+                val length = readBuffer.getInt()
+                if (length !in 0..FrameBuffer.MAX_PAYLOAD_SIZE) {
+                    throw IOException("Received a frame of invalid length $length from host ${host.name}.")
+                }
+                partialFrameOffset = 0
+                ByteArray(length).also { partialFrame = it }
+            } else {
+                break
+            }
+
+            val length = minOf(readBuffer.remaining(), frame.size - partialFrameOffset)
+            readBuffer.get(frame, partialFrameOffset, length)
+            partialFrameOffset += length
+            if (partialFrameOffset < frame.size) {
+                break
+            }
+
+            inbound.put(frame)
+            partialFrame = null
+        }
+        readBuffer.compact()
+        return count >= 0
+    }
+
+    /** Writes as much queued data as the socket accepts. Returns true if nothing is left to write. */
+    fun write(): Boolean {
+        while (true) {
+            writeBuffer.compact()
+            fillWriteBuffer()
+            writeBuffer.flip()
+
+            if (!writeBuffer.hasRemaining()) {
+                return true
+            }
+
+            channel.write(writeBuffer)
+            if (writeBuffer.hasRemaining()) {
+                return false
+            }
+        }
+    }
+
+    /** Copies queued frames into [writeBuffer] (which must be in write mode) until it is full. */
+    private fun fillWriteBuffer() {
+        while (writeBuffer.hasRemaining()) {
+            val frame = pendingFrame ?: run {
+                if (writeBuffer.remaining() < Int.SIZE_BYTES) {
+                    return
+                }
+                val next = outbound.poll() ?: return
+                writeBuffer.putInt(next.size)
+                pendingFrameOffset = 0
+                next.also { pendingFrame = it }
+            }
+
+            val length = minOf(writeBuffer.remaining(), frame.size - pendingFrameOffset)
+            writeBuffer.put(frame, pendingFrameOffset, length)
+            pendingFrameOffset += length
+            if (pendingFrameOffset == frame.size) {
+                pendingFrame = null
+            }
+        }
+    }
+}
+
+/**
+ * Implementation of a pairwise connected network using non-blocking socket channels.
+ *
+ * A single event loop thread multiplexes reads and writes for all peers over one [Selector].
+ * Received frames are queued per peer, so [receive] only blocks the calling thread
+ * and never ties up a thread per connection.
+ *
+ * Hosts that are not listening yet are retried as in [TCPNetworkStrategy],
+ * waiting at most [connectionRetryDelay] milliseconds between attempts, until [connectionTimeout] milliseconds have passed.
+ */
+class NIONetworkStrategy(
+    private val host: Host,
+    private val hostAddresses: Map<Host, InetSocketAddress>,
+    private val connectionTimeout: Long = TCPNetworkStrategy.CONNECTION_TIMEOUT,
+    private val connectionRetryDelay: Long = TCPNetworkStrategy.CONNECTION_RETRY_DELAY,
+) : NetworkStrategy, Closeable {
+    companion object {
+        /** Size of the direct read and write buffers allocated for each connection. */
+        const val BUFFER_SIZE: Int = 64 * 1024
+    }
+
+    private val connectionMap = ConcurrentHashMap<Host, NIOHostConnection>()
+
+    private val selector: Selector = Selector.open()
+
+    /** Connections with newly queued outbound data that the event loop has not picked up yet. */
+    private val writeRequests = ConcurrentLinkedQueue<NIOHostConnection>()
+
+    /** Scratch space for encoding outgoing payloads; the event loop adds framing. */
+    private val encodeBuffer = FrameBuffer()
+
+    private val eventLoop = Thread(::runEventLoop, "viaduct-nio-${host.name}").apply { isDaemon = true }
+
+    @Volatile
+    private var closing = false
+
+    /** Establish socket connections between all pairs of hosts.
+     *  Uses the same protocol as [TCPNetworkStrategy]:
+     *  hosts are sorted by name, and each host connects to hosts that come before it
+     *  and accepts connections from hosts that come after it.
+     *  Connections then go through the same compression handshake, in which this host always declines,
+     *  so frames are never compressed in either direction. */
+    private fun createRemoteConnections() {
+        val hostAddress = hostAddresses[this.host]!!
+        val serverChannel = ServerSocketChannel.open().bind(InetSocketAddress(hostAddress.port))
+
+        try {
+            runBlocking {
+                val sortedHosts = hostAddresses.keys.sorted()
+                val hindex = sortedHosts.indexOf(this@NIONetworkStrategy.host)
+
+                // hosts to which this host will connect
+                val listeningHosts = sortedHosts.subList(0, hindex)
+
+                // hosts that will connect to this host
+                val connectingHosts = sortedHosts.subList(hindex + 1, sortedHosts.size)
+
+                // accept connections from hosts with higher ID while connecting to hosts with lower ID
+                val incomingConnections = connectingHosts.toMutableSet()
+
+                if (incomingConnections.size > 0) {
+                    logger.info { "Listening to incoming connections from: ${connectingHosts.joinToString { it.name }}." }
+                }
+
+                val accepting = launch(Dispatchers.IO) {
+                    while (incomingConnections.isNotEmpty()) {
+                        val channel = try {
+                            serverChannel.accept()
+                        } catch (e: ClosedChannelException) {
+                            // A failed connection attempt closes the server channel; report that failure instead.
+                            throw CancellationException("Stopped accepting connections.", e)
+                        }
+                        val clientHostId = ByteBuffer.allocate(1)
+                        while (clientHostId.hasRemaining()) {
+                            if (channel.read(clientHostId) < 0) {
+                                throw IOException("Connection closed before the remote host identified itself.")
+                            }
+                        }
+                        val clientHost = sortedHosts.getOrNull(clientHostId.get(0).toInt() and 0xFF)
+                            ?: throw IOException("Remote host identified itself with an unknown index.")
+                        declineCompression(clientHost, channel)
+                        connectionMap[clientHost] = NIOHostConnection(clientHost, channel)
+                        incomingConnections.remove(clientHost)
+
+                        logger.info { "Accepted connection from host ${clientHost.name}." }
+                    }
+                }
+
+                val connecting = listeningHosts.map { listeningHost ->
+                    launch(Dispatchers.IO) {
+                        val listeningHostAddress = hostAddresses[listeningHost]!!
+                        val backoff = ConnectionBackoff(connectionRetryDelay, connectionTimeout)
+                        while (true) {
+                            try {
+                                val channel = SocketChannel.open(
+                                    InetSocketAddress(listeningHostAddress.hostString, listeningHostAddress.port),
+                                )
+
+                                // write this host's ID to identify this host to the remote host
+                                channel.write(ByteBuffer.wrap(byteArrayOf(hindex.toByte())))
+                                declineCompression(listeningHost, channel)
+                                connectionMap[listeningHost] = NIOHostConnection(listeningHost, channel)
+
+                                logger.info { "Connected to host ${listeningHost.name} at $listeningHostAddress." }
+                                break
+                            } catch (e: ConnectException) {
+                                val retryDelay = backoff.nextDelay() ?: run {
+                                    // unblock the accepting coroutine so the failure can propagate
+                                    serverChannel.close()
+                                    throw HostConnectionException(
+                                        this@NIONetworkStrategy.host,
+                                        listeningHost,
+                                        listeningHostAddress,
+                                    )
+                                }
+                                logger.info {
+                                    "Failed to connect to host ${listeningHost.name} at $listeningHostAddress; " +
+                                        "retrying in $retryDelay ms."
+                                }
+                                delay(retryDelay)
+                            }
+                        }
+                    }
+                }
+
+                (connecting + accepting).joinAll()
+            }
+        } catch (e: HostConnectionException) { // if this host failed to connect, clean up opened channels
+            for (connection in connectionMap.values) {
+                connection.close()
+            }
+
+            // propagate exception up
+            throw e
+        } finally {
+            serverChannel.close()
+        }
+    }
+
+    /**
+     * Answers the compression handshake of [TCPNetworkStrategy] on a newly opened [channel] to [peer].
+     * This host never compresses, so whatever [peer] asks for, neither end will.
+     */
+    private fun declineCompression(peer: Host, channel: SocketChannel) {
+        channel.write(ByteBuffer.wrap(byteArrayOf(0)))
+        val peerCompression = ByteBuffer.allocate(1)
+        while (peerCompression.hasRemaining()) {
+            if (channel.read(peerCompression) < 0) {
+                throw HostCommunicationException(this.host, peer)
+            }
+        }
+    }
+
+    /** Start runtime by opening channels to other hosts and starting the event loop. */
+    fun start() {
+        createRemoteConnections()
+
+        for (connection in connectionMap.values) {
+            connection.channel.setOption(StandardSocketOptions.TCP_NODELAY, true)
+            connection.channel.configureBlocking(false)
+            connection.channel.register(selector, SelectionKey.OP_READ, connection)
+        }
+
+        eventLoop.start()
+    }
+
+    private fun runEventLoop() {
+        try {
+            while (!closing || !connectionMap.values.all { it.isDrained }) {
+                selector.select()
+
+                while (true) {
+                    val connection = writeRequests.poll() ?: break
+                    handleFailure(connection) { write(connection) }
+                }
+
+                val keys = selector.selectedKeys().iterator()
+                while (keys.hasNext()) {
+                    val key = keys.next()
+                    keys.remove()
+
+                    if (!key.isValid) {
+                        // The connection failed earlier in this iteration.
+                        continue
+                    }
+
+                    val connection = key.attachment() as NIOHostConnection
+                    handleFailure(connection) {
+                        if (key.isReadable && !connection.read()) {
+                            // Remote host closed its end; stop polling for reads but keep draining writes.
+                            key.interestOpsAnd(SelectionKey.OP_READ.inv())
+                            connection.inbound.put(CONNECTION_CLOSED)
+                        }
+                        if (key.isValid && key.isWritable) {
+                            write(connection)
+                        }
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            logger.error(e) { "Network event loop for host ${host.name} failed." }
+            for (connection in connectionMap.values) {
+                fail(connection)
+            }
+        }
+    }
+
+    /** Runs [action] on [connection], failing only that connection if it throws an [IOException]. */
+    private inline fun handleFailure(connection: NIOHostConnection, action: () -> Unit) {
+        try {
+            action()
+        } catch (e: IOException) {
+            logger.error(e) { "Connection to host ${connection.host.name} failed." }
+            fail(connection)
+        }
+    }
+
+    /** Closes [connection] and wakes up anyone waiting to receive from it. Other connections are unaffected. */
+    private fun fail(connection: NIOHostConnection) {
+        connection.failed = true
+        try {
+            connection.close()
+        } catch (e: IOException) {
+            logger.warn(e) { "Failed to close connection to host ${connection.host.name}." }
+        }
+        connection.inbound.put(CONNECTION_CLOSED)
+    }
+
+    /** Writes pending data to [connection] and registers interest in writability if the socket is full. */
+    private fun write(connection: NIOHostConnection) {
+        if (connection.failed) {
+            return
+        }
+        val key = connection.channel.keyFor(selector)
+        if (connection.write()) {
+            key.interestOpsAnd(SelectionKey.OP_WRITE.inv())
+        } else {
+            key.interestOpsOr(SelectionKey.OP_WRITE)
+        }
+    }
+
+    override fun close() {
+        flushAll()
+        closing = true
+        selector.wakeup()
+        eventLoop.join()
+
+        for (kv in connectionMap) {
+            logger.info { "Closing connection to host ${kv.key.name}." }
+            kv.value.close()
+        }
+        selector.close()
+    }
+
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {
+        val connection = connectionMap[receiver]?.takeUnless { it.failed }
+            ?: throw HostCommunicationException(this.host, receiver)
+        logger.trace { "Sending $value to ${receiver.name}." }
+
+        val payload = synchronized(encodeBuffer) {
+            encodeBuffer.clear()
+            codec.encode(value, encodeBuffer)
+            encodeBuffer.array().copyOf(encodeBuffer.size)
+        }
+        connection.outbound.add(payload)
+    }
+
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+        val connections = receivers.map {
+            connectionMap[it]?.takeUnless { connection -> connection.failed }
+                ?: throw HostCommunicationException(this.host, it)
+        }
+        logger.trace { "Broadcasting $value to ${receivers.joinToString { it.name }}." }
+
+        val payload = synchronized(encodeBuffer) {
+            encodeBuffer.clear()
+            codec.encode(value, encodeBuffer)
+            encodeBuffer.array().copyOf(encodeBuffer.size)
+        }
+
+        // The event loop only reads payloads, so all connections can share one.
+        for (connection in connections) {
+            connection.outbound.add(payload)
+        }
+    }
+
+    override fun flush(receiver: Host) {
+        val connection = connectionMap[receiver] ?: throw HostCommunicationException(this.host, receiver)
+        if (connection.outbound.isNotEmpty()) {
+            writeRequests.add(connection)
+            selector.wakeup()
+        }
+    }
+
+    override fun flushAll() {
+        val pending = connectionMap.values.filter { it.outbound.isNotEmpty() }
+        if (pending.isNotEmpty()) {
+            writeRequests.addAll(pending)
+            selector.wakeup()
+        }
+    }
+
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T {
+        val connection = connectionMap[sender] ?: throw HostCommunicationException(this.host, sender)
+        val bytes = connection.inbound.poll() ?: run {
+            // About to block; the sender may be waiting on messages we have buffered.
+            flushAll()
+            connection.inbound.take()
+        }
+        if (bytes === CONNECTION_CLOSED) {
+            // Leave the marker in place so later receives fail too.
+            connection.inbound.put(CONNECTION_CLOSED)
+            throw HostCommunicationException(this.host, sender)
+        }
+
+        val value = codec.decode(ByteBuffer.wrap(bytes))
+
+        logger.trace { "Received $value from ${sender.name}." }
+
+        return value
+    }
+
+    override fun url(host: Host): InetSocketAddress {
+        return hostAddresses[host] ?: throw UnknownHostException(host)
+    }
+}
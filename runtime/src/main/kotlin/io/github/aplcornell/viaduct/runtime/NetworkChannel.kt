@@ -0,0 +1,38 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+
+/**
+ * Exchanges values of type [T] with [peer] over [network].
+ *
+ * The codec is resolved once when the channel is created,
+ * so a channel can be reused for any number of messages without reflection.
+ */
+class NetworkChannel<T>(
+    private val network: NetworkStrategy,
+    val peer: Host,
+    private val codec: WireCodec<T>,
+) {
+    /** Sends [value] to [peer]. */
+    fun send(value: T) =
+        network.send(codec, value, peer)
+
+    /** Receives a value from [peer]. */
+    fun receive(): T =
+        network.receive(codec, peer)
+}
+
+/**
+ * Sends values of type [T] to all of [receivers] over [network].
+ *
+ * Like [NetworkChannel], the codec is resolved once when the broadcast is created.
+ */
+class NetworkBroadcast<T>(
+    private val network: NetworkStrategy,
+    val receivers: List<Host>,
+    private val codec: WireCodec<T>,
+) {
+    /** Sends [value] to every host in [receivers]. */
+    fun send(value: T) =
+        network.broadcast(codec, value, receivers)
+}
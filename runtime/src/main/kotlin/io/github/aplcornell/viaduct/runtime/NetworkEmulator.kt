@@ -0,0 +1,139 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import mu.KotlinLogging
+import java.io.Closeable
+import java.net.InetSocketAddress
+import java.util.concurrent.ThreadLocalRandom
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.microseconds
+import kotlin.time.Duration.Companion.milliseconds
+
+private var logger = KotlinLogging.logger("Runtime")
+
+/**
+ * Characteristics of an emulated network link.
+ *
+ * @param latency one-way delay added to every message.
+ * @param bandwidth link capacity in bits per second.
+ * @param jitter upper bound on a uniformly random delay added on top of [latency].
+ */
+data class NetworkProfile(
+    val latency: Duration,
+    val bandwidth: Long,
+    val jitter: Duration = Duration.ZERO,
+) {
+    init {
+        require(bandwidth > 0) { "Bandwidth must be positive." }
+    }
+
+    companion object {
+        val LAN = NetworkProfile(latency = 100.microseconds, bandwidth = 1_000_000_000)
+
+        /** Matches the traffic rules in `benchmarks/scripts/settraffic`. */
+        val WAN = NetworkProfile(latency = 50.milliseconds, bandwidth = 100_000_000)
+    }
+}
+
+/**
+ * Delays and rate-limits messages to emulate the network described by [profile] for each sender/receiver pair.
+ *
+ * Messages are scheduled on a shared timer wheel rather than delayed with a sleep each,
+ * and are handed to the wrapped strategy on the timer thread once they are due.
+ * Traffic that does not go through a [NetworkStrategy] (for example, ABY's own connections) is not affected.
+ *
+ * If handing a message to the wrapped strategy fails, the failure is reported by the sender's next send and by [close].
+ */
+class NetworkEmulator(private val profile: (sender: Host, receiver: Host) -> NetworkProfile) : Closeable {
+    constructor(profile: NetworkProfile) : this({ _, _ -> profile })
+
+    private val timer = TimerWheel()
+
+    /**
+     * Returns a strategy for [host] that emulates this network on top of [network].
+     *
+     * Sends to [network] happen on the timer thread while [host] may be blocked in [NetworkStrategy.receive],
+     * so [network] must support sending and receiving from different threads,
+     * as [LoopbackNetworkStrategy] and [TCPNetworkStrategy] with asynchronous writes do.
+     */
+    fun emulate(host: Host, network: NetworkStrategy): NetworkStrategy =
+        EmulatedNetworkStrategy(host, network)
+
+    /**
+     * Waits for all messages in flight to be delivered.
+     *
+     * @throws TimerTaskException if handing a message to the wrapped strategy failed.
+     */
+    override fun close() {
+        timer.close()
+    }
+
+    private inner class EmulatedNetworkStrategy(
+        private val host: Host,
+        private val network: NetworkStrategy,
+    ) : NetworkStrategy {
+        /** Time at which each outgoing link finishes transmitting the messages already sent on it. */
+        private val linkFreeAt = mutableMapOf<Host, Long>()
+
+        /** Delivery time of the last message on each link, which keeps jitter from reordering messages. */
+        private val lastDelivery = mutableMapOf<Host, Long>()
+
+        private val encodeBuffer = FrameBuffer()
+
+        override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {
+            logger.trace { "Sending $value to ${receiver.name}." }
+            transmit(encode(codec, value), receiver)
+        }
+
+        override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+            logger.trace { "Broadcasting $value to ${receivers.joinToString { it.name }}." }
+            val payload = encode(codec, value)
+            for (receiver in receivers) {
+                transmit(payload, receiver)
+            }
+        }
+
+        private fun <T> encode(codec: WireEncoder<T>, value: T): ByteArray {
+            encodeBuffer.clear()
+            codec.encode(value, encodeBuffer)
+            return encodeBuffer.array().copyOf(encodeBuffer.size)
+        }
+
+        /** Schedules the delivery of [payload] to [receiver] according to the link's profile. */
+        private fun transmit(payload: ByteArray, receiver: Host) {
+            val link = profile(host, receiver)
+            val now = System.nanoTime()
+            val wireBits = (payload.size + FrameBuffer.HEADER_SIZE) * 8L
+            val departure = maxOf(now, linkFreeAt[receiver] ?: now) + wireBits * 1_000_000_000 / link.bandwidth
+            linkFreeAt[receiver] = departure
+
+            val maxJitter = link.jitter.inWholeNanoseconds
+            val jitter = if (maxJitter > 0) ThreadLocalRandom.current().nextLong(maxJitter) else 0L
+            val delivery = maxOf(departure + link.latency.inWholeNanoseconds + jitter, lastDelivery[receiver] ?: 0L)
+            lastDelivery[receiver] = delivery
+
+            timer.schedule(delivery) {
+                network.send(RawEncoder, payload, receiver)
+                network.flush(receiver)
+            }
+        }
+
+        override fun <T> receive(codec: WireDecoder<T>, sender: Host): T =
+            network.receive(codec, sender)
+
+        // Messages are flushed as soon as they are delivered.
+        override fun flush(receiver: Host) {}
+
+        override fun flushAll() {}
+
+        override fun url(host: Host): InetSocketAddress =
+            network.url(host)
+    }
+
+    /** Writes payloads that have already been encoded. */
+    private object RawEncoder : WireEncoder<ByteArray> {
+        override fun encode(value: ByteArray, output: FrameBuffer) {
+            output.reserve(value.size).put(value)
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+
+/*
+ * A recording is a compact binary log of the messages a host received, in the order it received them.
+ *
+ * The file starts with [RECORDING_MAGIC] and [RECORDING_VERSION], followed by records.
+ * Each record starts with a kind byte. A host record introduces the next host index and holds the host's name.
+ * A message record holds the index of the sending host and the bytes received, both lengths as variable-length ints.
+ */
+
+private const val RECORDING_MAGIC: Int = 0x56445243 // "VDRC"
+private const val RECORDING_VERSION: Int = 1
+
+private const val HOST_RECORD: Int = 0
+private const val MESSAGE_RECORD: Int = 1
+
+/** Appends received messages to a recording in [file]. Safe to use from multiple threads. */
+class NetworkRecordingWriter(file: File) : Closeable {
+    private val output = DataOutputStream(BufferedOutputStream(file.outputStream()))
+
+    private val hostIndices = mutableMapOf<Host, Int>()
+
+    init {
+        output.writeInt(RECORDING_MAGIC)
+        output.writeInt(RECORDING_VERSION)
+    }
+
+    /** Records that [length] bytes of [bytes] starting at [offset] were received from [sender]. */
+    @Synchronized
+    fun write(sender: Host, bytes: ByteArray, offset: Int = 0, length: Int = bytes.size) {
+        val index = hostIndices.getOrPut(sender) {
+            output.writeByte(HOST_RECORD)
+            output.writeUTF(sender.name)
+            hostIndices.size
+        }
+        output.writeByte(MESSAGE_RECORD)
+        output.writeVarInt(index)
+        output.writeVarInt(length)
+        output.write(bytes, offset, length)
+    }
+
+    @Synchronized
+    override fun close() {
+        output.close()
+    }
+}
+
+/** Reads back the messages in a recording made by [NetworkRecordingWriter]. */
+class NetworkRecordingReader(file: File) : Closeable {
+    private val input = DataInputStream(BufferedInputStream(file.inputStream()))
+
+    private val hosts = mutableListOf<Host>()
+
+    init {
+        if (input.readInt() != RECORDING_MAGIC || input.readInt() != RECORDING_VERSION) {
+            throw IOException("$file is not a network recording.")
+        }
+    }
+
+    /** Returns the next recorded message and its sender, or `null` at the end of the recording. */
+    fun read(): Pair<Host, ByteArray>? {
+        while (true) {
+            when (val kind = input.read()) {
+                -1 -> return null
+
+                HOST_RECORD -> hosts.add(Host(input.readUTF()))
+
+                MESSAGE_RECORD -> {
+                    val sender = hosts.getOrNull(input.readVarInt()) ?: throw IOException("Unknown host in recording.")
+                    val bytes = ByteArray(input.readVarInt())
+                    input.readFully(bytes)
+                    return Pair(sender, bytes)
+                }
+
+                else -> throw IOException("Unknown record kind $kind in recording.")
+            }
+        }
+    }
+
+    override fun close() {
+        input.close()
+    }
+}
+
+private fun DataOutputStream.writeVarInt(value: Int) {
+    var remaining = value
+    while (remaining and 0x7F.inv() != 0) {
+        writeByte((remaining and 0x7F) or 0x80)
+        remaining = remaining ushr 7
+    }
+    writeByte(remaining)
+}
+
+private fun DataInputStream.readVarInt(): Int {
+    var value = 0
+    var shift = 0
+    while (shift < Int.SIZE_BITS) {
+        val byte = read()
+        if (byte < 0) {
+            throw EOFException()
+        }
+        value = value or ((byte and 0x7F) shl shift)
+        if (byte and 0x80 == 0) {
+            return value
+        }
+        shift += 7
+    }
+    throw IOException("Malformed length in recording.")
+}
@@ -6,11 +6,45 @@ import kotlin.reflect.KType
 import kotlin.reflect.typeOf
 
 interface NetworkStrategy {
+    /** Receives a value from [sender] and decodes it using [codec]. */
+    fun <T> receive(codec: WireDecoder<T>, sender: Host): T
+
+    /**
+     * Encodes [value] using [codec] and sends it to [receiver].
+     *
+     * Implementations may buffer the message; it is guaranteed to be on the network only after
+     * a call to [flush] or [flushAll], or once this host blocks in [receive].
+     */
+    fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host)
+
+    /**
+     * Sends [value] to every host in [receivers].
+     *
+     * Implementations should encode [value] only once and share the encoding among all receivers.
+     */
+    fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+        for (receiver in receivers) {
+            send(codec, value, receiver)
+        }
+    }
+
     /** Receives a value of type [type] from [sender]. */
-    fun <T> receive(type: KType, sender: Host): T
+    fun <T> receive(type: KType, sender: Host): T =
+        receive(wireCodecFor<T>(type), sender)
 
     /** Sends [value] of type [type] to [receiver]. */
-    fun <T> send(type: KType, value: T, receiver: Host)
+    fun <T> send(type: KType, value: T, receiver: Host) =
+        send(wireCodecFor<T>(type), value, receiver)
+
+    /** Sends [value] of type [type] to every host in [receivers]. */
+    fun <T> broadcast(type: KType, value: T, receivers: Collection<Host>) =
+        broadcast(wireCodecFor<T>(type), value, receivers)
+
+    /** Writes out all buffered messages addressed to [receiver]. */
+    fun flush(receiver: Host)
+
+    /** Writes out all buffered messages. */
+    fun flushAll()
 
     /** Returns the network address of [host]. */
     fun url(host: Host): InetSocketAddress
@@ -23,3 +57,19 @@ inline fun <reified T> NetworkStrategy.receive(sender: Host): T =
 @OptIn(ExperimentalStdlibApi::class)
 inline fun <reified T> NetworkStrategy.send(value: T, receiver: Host) =
     send(typeOf<T>(), value, receiver)
+
+/** Returns a channel for exchanging values of type [type] with [peer]. */
+fun <T> NetworkStrategy.channel(type: KType, peer: Host): NetworkChannel<T> =
+    NetworkChannel(this, peer, wireCodecFor(type))
+
+@OptIn(ExperimentalStdlibApi::class)
+inline fun <reified T> NetworkStrategy.channel(peer: Host): NetworkChannel<T> =
+    channel(typeOf<T>(), peer)
+
+/** Returns a broadcast channel for sending values of type [type] to all [receivers]. */
+fun <T> NetworkStrategy.broadcastChannel(type: KType, vararg receivers: Host): NetworkBroadcast<T> =
+    NetworkBroadcast(this, receivers.toList(), wireCodecFor(type))
+
+@OptIn(ExperimentalStdlibApi::class)
+inline fun <reified T> NetworkStrategy.broadcastChannel(vararg receivers: Host): NetworkBroadcast<T> =
+    broadcastChannel(typeOf<T>(), *receivers)
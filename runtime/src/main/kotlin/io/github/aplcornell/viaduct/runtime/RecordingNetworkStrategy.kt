@@ -0,0 +1,60 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.io.Closeable
+import java.io.File
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+
+/**
+ * Passes all traffic through to [network], and records every message received to [file].
+ *
+ * The recording can be fed back to the same program with [ReplayNetworkStrategy].
+ * Only traffic that goes through [network] is recorded; ABY's own connections are not.
+ */
+class RecordingNetworkStrategy(
+    private val network: NetworkStrategy,
+    file: File,
+) : NetworkStrategy, Closeable {
+    private val recording = NetworkRecordingWriter(file)
+
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T =
+        network.receive(RecordingDecoder(codec, sender), sender)
+
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) =
+        network.send(codec, value, receiver)
+
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) =
+        network.broadcast(codec, value, receivers)
+
+    override fun flush(receiver: Host) =
+        network.flush(receiver)
+
+    override fun flushAll() =
+        network.flushAll()
+
+    override fun url(host: Host): InetSocketAddress =
+        network.url(host)
+
+    /** Finishes writing the recording. Does not close [network]. */
+    override fun close() {
+        recording.close()
+    }
+
+    /** Records the payload of each message before decoding it with [decoder]. */
+    private inner class RecordingDecoder<T>(
+        private val decoder: WireDecoder<T>,
+        private val sender: Host,
+    ) : WireDecoder<T> {
+        override fun decode(input: ByteBuffer): T {
+            if (input.hasArray()) {
+                recording.write(sender, input.array(), input.arrayOffset() + input.position(), input.remaining())
+            } else {
+                val bytes = ByteArray(input.remaining())
+                input.duplicate().get(bytes)
+                recording.write(sender, bytes)
+            }
+            return decoder.decode(input)
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+
+/** Thrown when a replayed host tries to receive more messages from [sender] than were recorded. */
+class ReplayExhaustedException(sender: Host) :
+    ViaductRuntimeException("Recording has no more messages from host ${sender.name}.")
@@ -0,0 +1,54 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.io.Closeable
+import java.io.File
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+
+/**
+ * Feeds the messages in a recording made by [RecordingNetworkStrategy] back to the program, and discards all sends.
+ *
+ * This makes it possible to run and profile a single host without its peers or a network.
+ * Messages from each sender are replayed in the order they were recorded.
+ * [hostAddresses] are only used to answer [url], so that backends that open their own connections
+ * (such as ABY) can still find their peers; that traffic is not replayed.
+ */
+class ReplayNetworkStrategy(
+    file: File,
+    private val hostAddresses: Map<Host, InetSocketAddress> = emptyMap(),
+) : NetworkStrategy, Closeable {
+    private val recording = NetworkRecordingReader(file)
+
+    /** Messages read ahead of the sender they were needed for. */
+    private val pending = mutableMapOf<Host, ArrayDeque<ByteArray>>()
+
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T {
+        pending[sender]?.removeFirstOrNull()?.let {
+            return codec.decode(ByteBuffer.wrap(it))
+        }
+
+        while (true) {
+            val (recordedSender, payload) = recording.read() ?: throw ReplayExhaustedException(sender)
+            if (recordedSender == sender) {
+                return codec.decode(ByteBuffer.wrap(payload))
+            }
+            pending.getOrPut(recordedSender) { ArrayDeque() }.addLast(payload)
+        }
+    }
+
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {}
+
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {}
+
+    override fun flush(receiver: Host) {}
+
+    override fun flushAll() {}
+
+    override fun url(host: Host): InetSocketAddress =
+        hostAddresses[host] ?: throw UnknownHostException(host)
+
+    override fun close() {
+        recording.close()
+    }
+}
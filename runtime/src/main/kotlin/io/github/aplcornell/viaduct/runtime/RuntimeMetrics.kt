@@ -0,0 +1,115 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Traffic statistics for [host], broken down by peer and direction.
+ *
+ * Each direction of each peer must only be updated from one thread at a time.
+ * Statistics should be read once all traffic is done, for example when the runtime shuts down.
+ */
+class RuntimeMetrics(val host: Host) {
+    companion object {
+        /** Number of buckets in [DirectionMetrics.sizeHistogram]; enough for any frame size. */
+        const val HISTOGRAM_BUCKETS: Int = Int.SIZE_BITS
+
+        /** Returns the histogram bucket for messages of [size] bytes. Bucket `i` holds sizes up to `2^i`. */
+        fun bucket(size: Int): Int =
+            if (size <= 1) 0 else Int.SIZE_BITS - Integer.numberOfLeadingZeros(size - 1)
+    }
+
+    /** Statistics for messages going one way between [host] and a peer. */
+    class DirectionMetrics {
+        var messages: Long = 0
+            private set
+
+        /** Total payload size in bytes. */
+        var bytes: Long = 0
+            private set
+
+        /** Number of messages in each size bucket; see [bucket]. */
+        val sizeHistogram = LongArray(HISTOGRAM_BUCKETS)
+
+        /** Records a message with a payload of [size] bytes. */
+        fun record(size: Int) {
+            messages += 1
+            bytes += size
+            sizeHistogram[bucket(size)] += 1
+        }
+    }
+
+    /** Statistics for the traffic between [host] and one peer. */
+    class PeerMetrics {
+        val sent = DirectionMetrics()
+
+        val received = DirectionMetrics()
+
+        /** Time spent waiting for messages from the peer, in nanoseconds. */
+        var receiveBlockedNanos: Long = 0
+            private set
+
+        fun recordBlocked(nanos: Long) {
+            receiveBlockedNanos += nanos
+        }
+    }
+
+    private val peerMetrics = ConcurrentHashMap<Host, PeerMetrics>()
+
+    /** Statistics for every peer [host] has exchanged messages with. */
+    val peers: Map<Host, PeerMetrics>
+        get() = peerMetrics
+
+    /** Returns the statistics for [peer], starting new ones if necessary. */
+    fun peer(peer: Host): PeerMetrics =
+        peerMetrics.computeIfAbsent(peer) { PeerMetrics() }
+
+    /** Returns these statistics as a JSON object. Histograms only list non-empty buckets. */
+    fun toJson(): String {
+        val json = StringBuilder()
+        json.append("{\"host\":").appendString(host.name).append(",\"peers\":{")
+        peerMetrics.entries.sortedBy { it.key }.forEachIndexed { i, (peer, metrics) ->
+            if (i > 0) json.append(',')
+            json.appendString(peer.name).append(":{")
+            json.append("\"sent\":").appendDirection(metrics.sent)
+            json.append(",\"received\":").appendDirection(metrics.received)
+            json.append(",\"receiveBlockedNanos\":").append(metrics.receiveBlockedNanos)
+            json.append('}')
+        }
+        json.append("}}")
+        return json.toString()
+    }
+
+    /** Writes [toJson] to [file]. */
+    fun writeJson(file: File) {
+        file.writeText(toJson() + "\n")
+    }
+
+    private fun StringBuilder.appendDirection(metrics: DirectionMetrics): StringBuilder {
+        append("{\"messages\":").append(metrics.messages)
+        append(",\"bytes\":").append(metrics.bytes)
+        append(",\"sizeHistogram\":[")
+        var first = true
+        metrics.sizeHistogram.forEachIndexed { bucket, count ->
+            if (count > 0) {
+                if (!first) append(',')
+                append("{\"maxBytes\":").append(1L shl bucket).append(",\"messages\":").append(count).append('}')
+                first = false
+            }
+        }
+        return append("]}")
+    }
+
+    private fun StringBuilder.appendString(value: String): StringBuilder {
+        append('"')
+        for (c in value) {
+            when {
+                c == '"' || c == '\\' -> append('\\').append(c)
+                c < ' ' -> append("\\u%04x".format(c.code))
+                else -> append(c)
+            }
+        }
+        return append('"')
+    }
+}
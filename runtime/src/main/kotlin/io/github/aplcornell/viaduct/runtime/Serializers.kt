@@ -0,0 +1,16 @@
+package io.github.aplcornell.viaduct.runtime
+
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.protobuf.ProtoBuf
+import kotlinx.serialization.serializer
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.reflect.KType
+
+private val serializers = ConcurrentHashMap<KType, KSerializer<Any?>>()
+
+/** Returns the serializer for [type]. Reflection is only used the first time a type is seen. */
+@OptIn(ExperimentalSerializationApi::class)
+@Suppress("UNCHECKED_CAST")
+internal fun <T> serializerFor(type: KType): KSerializer<T> =
+    serializers.getOrPut(type) { ProtoBuf.serializersModule.serializer(type) } as KSerializer<T>
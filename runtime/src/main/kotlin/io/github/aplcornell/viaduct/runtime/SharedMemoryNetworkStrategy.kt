@@ -0,0 +1,217 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import mu.KotlinLogging
+import java.io.Closeable
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.nio.file.Files
+import java.nio.file.Path
+
+private var logger = KotlinLogging.logger("Runtime")
+
+/**
+ * Implementation of a pairwise connected network where hosts on the same machine communicate
+ * through memory-mapped ring buffers in [directory], and all other hosts communicate over TCP.
+ *
+ * By default, a host is co-located with this host if their addresses have the same host name.
+ * All hosts must agree on which hosts are co-located and use the same [directory] and [ringCapacity].
+ *
+ * Rings left in [directory] by an earlier run are detected and ignored.
+ * If a co-located host closes its rings or dies while this host is waiting on it,
+ * the wait fails with a [HostCommunicationException], as a closed TCP connection would.
+ */
+class SharedMemoryNetworkStrategy(
+    private val host: Host,
+    private val hostAddresses: Map<Host, InetSocketAddress>,
+    private val directory: Path,
+    private val colocatedHosts: Set<Host> = colocatedWith(host, hostAddresses),
+    private val ringCapacity: Int = RING_CAPACITY,
+    private val connectionTimeout: Long = TCPNetworkStrategy.CONNECTION_TIMEOUT,
+    private val connectionRetryDelay: Long = TCPNetworkStrategy.CONNECTION_RETRY_DELAY,
+) : NetworkStrategy, Closeable {
+    companion object {
+        /** Default size of the data region of each ring. */
+        const val RING_CAPACITY: Int = 1024 * 1024
+
+        /** Returns the hosts other than [host] whose address has the same host name as the address of [host]. */
+        fun colocatedWith(host: Host, hostAddresses: Map<Host, InetSocketAddress>): Set<Host> {
+            val hostName = (hostAddresses[host] ?: throw UnknownHostException(host)).hostString
+            return hostAddresses.filter { it.key != host && it.value.hostString == hostName }.keys
+        }
+    }
+
+    private val tcp = TCPNetworkStrategy(
+        host,
+        hostAddresses,
+        connectionTimeout,
+        connectionRetryDelay,
+        peers = hostAddresses.keys - colocatedHosts - host,
+    )
+
+    private val inboundRings = mutableMapOf<Host, SharedMemoryRing>()
+
+    private val outboundRings = mutableMapOf<Host, SharedMemoryRing>()
+
+    /** Buffers that frames from co-located hosts are read into and decoded from. */
+    private val receiveBuffers = BufferPool()
+
+    /** Scratch space for encoding outgoing frames. */
+    private val encodeBuffer = FrameBuffer()
+
+    private fun ringPath(sender: Host, receiver: Host): Path =
+        directory.resolve("${sender.name}-${receiver.name}.ring")
+
+    /** Creates rings from co-located hosts, opens rings to them, then connects to the remaining hosts. */
+    fun start() {
+        Files.createDirectories(directory)
+
+        // Receivers own their inbound rings, so create those before waiting on anyone else.
+        for (sender in colocatedHosts) {
+            inboundRings[sender] = SharedMemoryRing.create(ringPath(sender, host), ringCapacity)
+        }
+
+        connectRings()
+
+        tcp.start()
+    }
+
+    /**
+     * Opens the rings to co-located hosts and waits for them to answer the handshake,
+     * while answering the handshakes of co-located hosts on the rings this host created.
+     *
+     * A ring to a host is reopened whenever the file at its path changes,
+     * since the file found first may be left over from an earlier run.
+     */
+    private fun connectRings() {
+        val backoff = ConnectionBackoff(connectionRetryDelay, connectionTimeout)
+        val unacknowledged = inboundRings.keys.toMutableSet()
+        val unconnected = colocatedHosts.toMutableSet()
+        val opened = mutableMapOf<Host, SharedMemoryRing>()
+
+        try {
+            while (true) {
+                unacknowledged.removeAll { sender -> inboundRings.getValue(sender).acknowledge() }
+
+                for (receiver in unconnected.toList()) {
+                    val path = ringPath(host, receiver)
+                    val ring = opened[receiver]
+                    if (ring == null || !ring.isCurrent(path)) {
+                        ring?.close()
+                        opened.remove(receiver)
+                        SharedMemoryRing.open(path, ringCapacity)?.let { opened[receiver] = it }
+                    } else if (ring.isAcknowledged) {
+                        outboundRings[receiver] = ring
+                        opened.remove(receiver)
+                        unconnected.remove(receiver)
+                        logger.info { "Connected to co-located host ${receiver.name} through shared memory." }
+                    }
+                }
+
+                if (unacknowledged.isEmpty() && unconnected.isEmpty()) {
+                    return
+                }
+
+                val waitingOn = (unconnected + unacknowledged).sorted()
+                val retryDelay = backoff.nextDelay()
+                    ?: waitingOn.first().let { throw HostConnectionException(host, it, url(it)) }
+                logger.info {
+                    "Waiting for co-located hosts ${waitingOn.joinToString { it.name }}; retrying in $retryDelay ms."
+                }
+                Thread.sleep(retryDelay)
+            }
+        } finally {
+            // Rings that never completed the handshake.
+            opened.values.forEach { it.close() }
+        }
+    }
+
+    override fun close() {
+        tcp.close()
+
+        for (ring in outboundRings.values) {
+            ring.close()
+        }
+        for ((sender, ring) in inboundRings) {
+            logger.info { "Removing shared memory ring from host ${sender.name}." }
+            ring.close()
+            Files.deleteIfExists(ringPath(sender, host))
+        }
+    }
+
+    /** Reports failures on the ring to or from [peer], such as [peer] going away while this host waits on it. */
+    private inline fun <R> withRing(peer: Host, action: () -> R): R =
+        try {
+            action()
+        } catch (e: IOException) {
+            throw HostCommunicationException(this.host, peer, e)
+        }
+
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {
+        val ring = outboundRings[receiver] ?: return tcp.send(codec, value, receiver)
+        logger.trace { "Sending $value to ${receiver.name}." }
+
+        encodeBuffer.clear()
+        val start = encodeBuffer.beginFrame()
+        codec.encode(value, encodeBuffer)
+        encodeBuffer.endFrame(start)
+        withRing(receiver) { ring.write(encodeBuffer.array(), 0, encodeBuffer.size) }
+    }
+
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+        val (local, remote) = receivers.partition { it in outboundRings }
+        if (local.isNotEmpty()) {
+            logger.trace { "Broadcasting $value to ${local.joinToString { it.name }}." }
+
+            encodeBuffer.clear()
+            val start = encodeBuffer.beginFrame()
+            codec.encode(value, encodeBuffer)
+            encodeBuffer.endFrame(start)
+            for (receiver in local) {
+                val ring = outboundRings.getValue(receiver)
+                withRing(receiver) { ring.write(encodeBuffer.array(), 0, encodeBuffer.size) }
+            }
+        }
+        if (remote.isNotEmpty()) {
+            tcp.broadcast(codec, value, remote)
+        }
+    }
+
+    // Writes to a ring are visible to the receiver immediately.
+    override fun flush(receiver: Host) {
+        if (receiver !in outboundRings) {
+            tcp.flush(receiver)
+        }
+    }
+
+    override fun flushAll() {
+        tcp.flushAll()
+    }
+
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T {
+        val ring = inboundRings[sender] ?: return tcp.receive(codec, sender)
+
+        // The sender may be waiting on messages we have buffered for a remote host.
+        tcp.flushAll()
+
+        val length = withRing(sender) { ring.readInt() }
+        if (length !in 0..FrameBuffer.MAX_PAYLOAD_SIZE) {
+            throw HostCommunicationException(this.host, sender)
+        }
+        val buffer = receiveBuffers.acquire(length)
+        val value = try {
+            withRing(sender) { ring.read(buffer.array(), 0, buffer.limit()) }
+            codec.decode(buffer)
+        } finally {
+            receiveBuffers.release(buffer)
+        }
+
+        logger.trace { "Received $value from ${sender.name}." }
+
+        return value
+    }
+
+    override fun url(host: Host): InetSocketAddress {
+        return hostAddresses[host] ?: throw UnknownHostException(host)
+    }
+}
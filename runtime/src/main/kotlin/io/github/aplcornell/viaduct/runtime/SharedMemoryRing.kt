@@ -0,0 +1,259 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.io.Closeable
+import java.io.IOException
+import java.lang.invoke.VarHandle
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * A single-producer/single-consumer byte stream through a memory-mapped file.
+ *
+ * The file starts with the producer's write position and the consumer's read position
+ * on separate cache lines, followed by [capacity] bytes of data.
+ * Positions only ever grow; position `p` is stored at data offset `p % capacity`.
+ * Each side only writes its own position, so no locks are needed even across processes.
+ *
+ * The consumer [create]s the ring and the producer [open]s it.
+ * Before writing, the producer stores a random nonce in the header and waits for the consumer to echo it back
+ * (see [acknowledge] and [isAcknowledged]). A ring left behind by a crashed run is never acknowledged,
+ * so the producer cannot end up writing into a file that the consumer has since replaced.
+ *
+ * While a side has the ring open, it holds a lock on a byte of the file past the mapped region.
+ * The operating system releases the lock when the process dies,
+ * so a side that is waiting for the other can tell whether anyone is left to wake it up.
+ */
+internal class SharedMemoryRing private constructor(
+    private val channel: FileChannel,
+    private val capacity: Int,
+    private val isProducer: Boolean,
+    /** Identifies the file this ring was opened from. Only set for producers. */
+    private val fileKey: Any? = null,
+) : Closeable {
+    companion object {
+        private const val WRITE_POSITION: Int = 0
+        private const val PRODUCER_NONCE: Int = 8
+        private const val READ_POSITION: Int = 64
+        private const val CONSUMER_ACKNOWLEDGEMENT: Int = 72
+        private const val DATA_OFFSET: Int = 128
+
+        /** Number of busy-wait iterations before falling back to parking. */
+        private const val SPIN_LIMIT: Int = 1000
+
+        /** How long to park between checks once spinning has failed. */
+        private const val PARK_NANOS: Long = 20_000
+
+        /** How often a parked side checks that the other side is still alive. */
+        private const val LIVENESS_CHECK_NANOS: Long = 100_000_000
+
+        /**
+         * Creates an empty ring at [path] for the consumer, replacing any existing file.
+         * The file only appears at [path] once it is fully initialized.
+         */
+        fun create(path: Path, capacity: Int): SharedMemoryRing {
+            val temporary = Files.createTempFile(path.parent, path.fileName.toString(), ".tmp")
+            val ring = SharedMemoryRing(openChannel(temporary), capacity, isProducer = false)
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+            return ring
+        }
+
+        /**
+         * Opens the ring at [path] for the producer and starts the handshake,
+         * or returns null if there is no ring at [path] yet.
+         */
+        fun open(path: Path, capacity: Int): SharedMemoryRing? {
+            val fileKey = fileKey(path) ?: return null
+            val channel = try {
+                openChannel(path)
+            } catch (e: NoSuchFileException) {
+                return null
+            }
+
+            // Make sure the file did not change between reading its key and opening it.
+            if (fileKey(path) != fileKey) {
+                channel.close()
+                return null
+            }
+
+            return SharedMemoryRing(channel, capacity, isProducer = true, fileKey)
+        }
+
+        private fun openChannel(path: Path): FileChannel =
+            FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+
+        /** Returns an identifier of the file currently at [path], or null if there is none. */
+        private fun fileKey(path: Path): Any? =
+            try {
+                Files.readAttributes(path, BasicFileAttributes::class.java).let { it.fileKey() ?: it.creationTime() }
+            } catch (e: IOException) {
+                null
+            }
+    }
+
+    private val buffer: MappedByteBuffer =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, (DATA_OFFSET + capacity).toLong())
+
+    /** Where each side holds its liveness lock; past the mapped region so the locks never cover data. */
+    private val producerLockPosition: Long = (DATA_OFFSET + capacity).toLong()
+    private val consumerLockPosition: Long = producerLockPosition + 1
+
+    private val ownLock: FileLock =
+        channel.lock(if (isProducer) producerLockPosition else consumerLockPosition, 1, false)
+
+    /** The nonce this producer is waiting to see acknowledged. */
+    private val nonce: Long =
+        if (isProducer) ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE) else 0
+
+    init {
+        if (isProducer) {
+            publish(PRODUCER_NONCE, nonce)
+        }
+    }
+
+    /** This side's own position; the write position for producers and the read position for consumers. */
+    private var position: Long = 0
+
+    private val scratch = ByteArray(Int.SIZE_BYTES)
+
+    /** True if the consumer has answered this producer's handshake. */
+    val isAcknowledged: Boolean
+        get() = load(CONSUMER_ACKNOWLEDGEMENT) == nonce
+
+    /** True if [path] still refers to the file this producer opened. */
+    fun isCurrent(path: Path): Boolean =
+        fileKey(path) == fileKey
+
+    /** Answers the producer's handshake if it has started. Consumer only. Returns true once answered. */
+    fun acknowledge(): Boolean {
+        val producerNonce = load(PRODUCER_NONCE)
+        if (producerNonce == 0L) {
+            return false
+        }
+        publish(CONSUMER_ACKNOWLEDGEMENT, producerNonce)
+        return true
+    }
+
+    /**
+     * Appends [length] bytes of [bytes] starting at [offset], waiting for the consumer to make room.
+     *
+     * @throws IOException if the consumer goes away while this side is waiting.
+     */
+    fun write(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size) {
+        var written = 0
+        while (written < length) {
+            var free = 0L
+            await {
+                free = capacity - (position - load(READ_POSITION))
+                free > 0
+            }
+
+            val index = (position % capacity).toInt()
+            val chunk = minOf(free.toInt(), length - written, capacity - index)
+            buffer.put(DATA_OFFSET + index, bytes, offset + written, chunk)
+            written += chunk
+            position += chunk
+            publish(WRITE_POSITION, position)
+        }
+    }
+
+    /**
+     * Reads exactly [length] bytes into [bytes] starting at [offset], waiting for the producer if necessary.
+     *
+     * @throws IOException if the producer goes away before writing enough bytes.
+     */
+    fun read(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size) {
+        var read = 0
+        while (read < length) {
+            var available = 0L
+            await {
+                available = load(WRITE_POSITION) - position
+                available > 0
+            }
+
+            val index = (position % capacity).toInt()
+            val chunk = minOf(available.toInt(), length - read, capacity - index)
+            buffer.get(DATA_OFFSET + index, bytes, offset + read, chunk)
+            read += chunk
+            position += chunk
+            publish(READ_POSITION, position)
+        }
+    }
+
+    /** Reads a big-endian integer. */
+    fun readInt(): Int {
+        read(scratch)
+        return (scratch[0].toInt() and 0xFF shl 24) or
+            (scratch[1].toInt() and 0xFF shl 16) or
+            (scratch[2].toInt() and 0xFF shl 8) or
+            (scratch[3].toInt() and 0xFF)
+    }
+
+    /** Releases this side's lock, which tells the other side that nothing more will happen on this end. */
+    override fun close() {
+        if (channel.isOpen) {
+            ownLock.release()
+            channel.close()
+        }
+    }
+
+    private fun load(index: Int): Long {
+        val value = buffer.getLong(index)
+        VarHandle.acquireFence()
+        return value
+    }
+
+    private fun publish(index: Int, value: Long) {
+        VarHandle.releaseFence()
+        buffer.putLong(index, value)
+    }
+
+    /** Returns false if the other side no longer holds its lock, that is, it closed the ring or died. */
+    private fun isPeerAlive(): Boolean =
+        try {
+            val peerLock = channel.tryLock(if (isProducer) consumerLockPosition else producerLockPosition, 1, false)
+            if (peerLock == null) {
+                true
+            } else {
+                peerLock.release()
+                false
+            }
+        } catch (e: OverlappingFileLockException) {
+            // The other side runs in this process and still holds its lock.
+            true
+        }
+
+    private inline fun await(condition: () -> Boolean) {
+        var spins = 0
+        var lastLivenessCheck = System.nanoTime()
+        while (!condition()) {
+            if (spins < SPIN_LIMIT) {
+                spins++
+                Thread.onSpinWait()
+            } else {
+                LockSupport.parkNanos(PARK_NANOS)
+                if (Thread.interrupted()) {
+                    throw InterruptedException()
+                }
+
+                val now = System.nanoTime()
+                if (now - lastLivenessCheck >= LIVENESS_CHECK_NANOS) {
+                    lastLivenessCheck = now
+                    // Check once more in case the other side made progress just before leaving.
+                    if (!isPeerAlive() && !condition()) {
+                        throw IOException("The other side of the shared memory ring has gone away.")
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * An unbounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * The consumer spins briefly when the queue is empty and then parks until the producer wakes it up.
+ */
+internal class SpscQueue<E : Any> {
+    private companion object {
+        /** Number of times [take] polls before parking. */
+        const val SPIN_LIMIT: Int = 1000
+    }
+
+    private class Node<E : Any>(var value: E?) {
+        @Volatile
+        var next: Node<E>? = null
+    }
+
+    /** The last consumed node. Only accessed by the consumer. */
+    private var head = Node<E>(null)
+
+    /** The last produced node. Only accessed by the producer. */
+    private var tail = head
+
+    /** The consumer, if it is parked or about to park. */
+    @Volatile
+    private var waiter: Thread? = null
+
+    /** Appends [value]. Must only be called from the producer thread. */
+    fun offer(value: E) {
+        val node = Node(value)
+        tail.next = node
+        tail = node
+        waiter?.let { LockSupport.unpark(it) }
+    }
+
+    /** Removes and returns the oldest element, or returns null if there is none. Consumer only. */
+    fun poll(): E? {
+        val next = head.next ?: return null
+        head = next
+        return next.value.also { next.value = null }
+    }
+
+    /** Removes and returns the oldest element, waiting for one if necessary. Consumer only. */
+    fun take(): E {
+        repeat(SPIN_LIMIT) {
+            poll()?.let { return it }
+            Thread.onSpinWait()
+        }
+
+        waiter = Thread.currentThread()
+        try {
+            while (true) {
+                // Poll after publishing [waiter] so an element offered in between is not missed.
+                poll()?.let { return it }
+                LockSupport.park(this)
+                if (Thread.interrupted()) {
+                    throw InterruptedException()
+                }
+            }
+        } finally {
+            waiter = null
+        }
+    }
+}
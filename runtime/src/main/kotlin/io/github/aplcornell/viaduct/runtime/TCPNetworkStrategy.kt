@@ -1,50 +1,253 @@
 package io.github.aplcornell.viaduct.runtime
 
 import io.github.aplcornell.viaduct.syntax.Host
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
-import kotlinx.serialization.ExperimentalSerializationApi
-import kotlinx.serialization.KSerializer
-import kotlinx.serialization.protobuf.ProtoBuf
-import kotlinx.serialization.serializer
 import mu.KotlinLogging
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
 import java.io.Closeable
 import java.io.DataInputStream
-import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
 import java.net.ConnectException
 import java.net.InetSocketAddress
 import java.net.ServerSocket
 import java.net.Socket
+import java.net.SocketException
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.ConcurrentHashMap
-import kotlin.reflect.KType
 
 private var logger = KotlinLogging.logger("Runtime")
 
-private class HostConnection(private val socket: Socket) : Closeable by socket {
-    val input = DataInputStream(socket.getInputStream())
-    val output = DataOutputStream(socket.getOutputStream())
+/**
+ * A connection to a single peer.
+ *
+ * Frames are compressed with [compressor] if it is set, which both ends agree on when connecting.
+ */
+private open class HostConnection(
+    private val socket: Socket,
+    protected val compressor: FrameCompressor?,
+) : Closeable {
+    init {
+        // Messages are coalesced in [outputBuffer] and flushed explicitly, so Nagle's algorithm only adds latency.
+        socket.tcpNoDelay = true
+    }
+
+    val input = DataInputStream(BufferedInputStream(socket.getInputStream(), TCPNetworkStrategy.BUFFER_SIZE))
+
+    protected val output: OutputStream = socket.getOutputStream()
+
+    /** Frames waiting to be written to [socket]. */
+    protected val outputBuffer = FrameBuffer(TCPNetworkStrategy.BUFFER_SIZE)
+
+    /** True if frames sent on this connection may be compressed. */
+    val compresses: Boolean
+        get() = compressor != null
+
+    /** Encodes [value] into the output buffer, writing the buffer out if it is full. */
+    open fun <T> send(codec: WireEncoder<T>, value: T) {
+        val start = outputBuffer.beginFrame()
+        codec.encode(value, outputBuffer)
+        outputBuffer.endFrame(start)
+        compressor?.compress(outputBuffer, start)
+
+        if (outputBuffer.size >= TCPNetworkStrategy.BUFFER_SIZE) {
+            flush()
+        }
+    }
+
+    /** Appends an already framed message to the output buffer, writing the buffer out if it is full. */
+    open fun sendFrame(frame: ByteArray) {
+        outputBuffer.reserve(frame.size).put(frame)
+
+        if (outputBuffer.size >= TCPNetworkStrategy.BUFFER_SIZE) {
+            flush()
+        }
+    }
+
+    /** Writes out all buffered frames. */
+    open fun flush() {
+        if (outputBuffer.size > 0) {
+            output.write(outputBuffer.array(), 0, outputBuffer.size)
+            outputBuffer.clear()
+        }
+    }
+
+    /** Throws if an earlier write failed in the background. */
+    open fun checkFailure() {}
+
+    override fun close() {
+        socket.close()
+    }
 }
 
-/** Implementation of a pairwise connected network using TCP sockets. */
-@OptIn(ExperimentalSerializationApi::class)
-@Suppress("UNCHECKED_CAST")
+/**
+ * A connection that hands encoded frames to a dedicated writer thread,
+ * so a slow peer only stalls the sender once [queueCapacity] frames are waiting.
+ */
+private class AsyncHostConnection(
+    socket: Socket,
+    compressor: FrameCompressor?,
+    peer: Host,
+    queueCapacity: Int,
+) : HostConnection(socket, compressor) {
+    private companion object {
+        /** Tells the writer thread to stop. */
+        val END_OF_STREAM = ByteArray(0)
+    }
+
+    private val queue = ArrayBlockingQueue<ByteArray>(queueCapacity)
+
+    /** The error that stopped the writer thread, if any. */
+    @Volatile
+    private var failure: IOException? = null
+
+    private val writer = Thread({ drain() }, "viaduct-writer-${peer.name}").apply {
+        isDaemon = true
+        start()
+    }
+
+    override fun <T> send(codec: WireEncoder<T>, value: T) {
+        checkFailure()
+
+        outputBuffer.clear()
+        val start = outputBuffer.beginFrame()
+        codec.encode(value, outputBuffer)
+        outputBuffer.endFrame(start)
+        compressor?.compress(outputBuffer, start)
+
+        // Blocks while the queue is full, which bounds the memory held for a slow peer.
+        queue.put(outputBuffer.array().copyOf(outputBuffer.size))
+    }
+
+    override fun sendFrame(frame: ByteArray) {
+        checkFailure()
+
+        // Writers only read frames, so the same frame can be queued for several peers.
+        queue.put(frame)
+    }
+
+    // The writer flushes by itself whenever it runs out of queued frames.
+    override fun flush() {
+        checkFailure()
+    }
+
+    override fun checkFailure() {
+        failure?.let { throw it }
+    }
+
+    private fun drain() {
+        try {
+            val bufferedOutput = BufferedOutputStream(output, TCPNetworkStrategy.BUFFER_SIZE)
+            while (true) {
+                var frame = queue.take()
+                while (frame !== END_OF_STREAM) {
+                    bufferedOutput.write(frame)
+                    frame = queue.poll() ?: break
+                }
+                bufferedOutput.flush()
+                if (frame === END_OF_STREAM) {
+                    return
+                }
+            }
+        } catch (e: IOException) {
+            failure = e
+            // Unblock senders waiting on a full queue; they will see [failure] on their next call.
+            queue.clear()
+        } catch (e: InterruptedException) {
+            return
+        }
+    }
+
+    override fun close() {
+        if (failure == null) {
+            queue.put(END_OF_STREAM)
+            writer.join()
+        }
+        super.close()
+    }
+}
+
+/**
+ * Implementation of a pairwise connected network using TCP sockets.
+ *
+ * Only connects to [peers], which defaults to all other hosts.
+ * All hosts must agree on which pairs are connected.
+ * Hosts that are not listening yet are retried with exponential backoff, waiting at most [connectionRetryDelay]
+ * milliseconds between attempts, until [connectionTimeout] milliseconds have passed.
+ *
+ * If [asyncWrites] is set, each connection gets a writer thread and [send] only enqueues the encoded message,
+ * blocking when [writeQueueCapacity] messages are already waiting for that peer.
+ * Write errors are reported by the next [send], [flush], or [receive] involving the same peer.
+ *
+ * If [compression] is set, payloads of at least [compressionThreshold] bytes are compressed
+ * on connections to peers that also enable compression.
+ * This saves bandwidth for large, regular values such as arrays of small integers at the cost of some CPU time.
+ */
 class TCPNetworkStrategy(
     private val host: Host,
     private val hostAddresses: Map<Host, InetSocketAddress>,
-    private val connectionNumRetry: Int = CONNECTION_NUM_RETRY,
+    private val connectionTimeout: Long = CONNECTION_TIMEOUT,
     private val connectionRetryDelay: Long = CONNECTION_RETRY_DELAY,
+    private val peers: Set<Host> = hostAddresses.keys - host,
+    private val asyncWrites: Boolean = false,
+    private val writeQueueCapacity: Int = WRITE_QUEUE_CAPACITY,
+    private val compression: Boolean = false,
+    compressionThreshold: Int = COMPRESSION_THRESHOLD,
 ) : NetworkStrategy, Closeable {
     companion object {
-        // default: try to connect for at most 10 times, at 1000ms intervals
-        const val CONNECTION_NUM_RETRY: Int = 10
+        /** Default time in milliseconds to keep trying to connect to a host before giving up. */
+        const val CONNECTION_TIMEOUT: Long = 10_000
+
+        /** Default upper bound in milliseconds on the delay between attempts to connect to a host. */
         const val CONNECTION_RETRY_DELAY: Long = 1000
+
+        /** Size of the per-connection buffers that coalesce small messages. */
+        const val BUFFER_SIZE: Int = 64 * 1024
+
+        /** Default number of messages that may wait for each peer's writer thread. */
+        const val WRITE_QUEUE_CAPACITY: Int = 1024
+
+        /** Default size in bytes above which payloads are compressed when compression is enabled. */
+        const val COMPRESSION_THRESHOLD: Int = FrameCompressor.DEFAULT_THRESHOLD
+    }
+
+    /** Shared by all connections since frames are only compressed on the sending thread. */
+    private val compressor = FrameCompressor(compressionThreshold)
+
+    private fun connection(peer: Host, socket: Socket): HostConnection {
+        val connectionCompressor = compressor.takeIf { negotiateCompression(peer, socket) }
+        return if (asyncWrites) {
+            AsyncHostConnection(socket, connectionCompressor, peer, writeQueueCapacity)
+        } else {
+            HostConnection(socket, connectionCompressor)
+        }
+    }
+
+    /** Tells [peer] whether this host wants compression, and returns whether both ends do. */
+    private fun negotiateCompression(peer: Host, socket: Socket): Boolean {
+        socket.getOutputStream().write(if (compression) 1 else 0)
+        val peerCompression = socket.getInputStream().read()
+        if (peerCompression < 0) {
+            throw HostCommunicationException(this.host, peer)
+        }
+        return compression && peerCompression == 1
     }
 
     private val connectionMap = ConcurrentHashMap<Host, HostConnection>()
 
+    /** Scratch space for encoding broadcast messages once for all receivers. */
+    private val broadcastBuffer = FrameBuffer()
+
+    /** Buffers that incoming frames are read into and decoded from. */
+    private val receiveBuffers = BufferPool()
+
     /** Establish socket connections between all pairs of hosts.
      *  The protocol for connecting is that we sorted the hosts
      *  h_1, ..., h_n alphabetically (assuming that no host has the same name),
@@ -63,73 +266,84 @@ class TCPNetworkStrategy(
                 val hindex = sortedHosts.indexOf(this@TCPNetworkStrategy.host)
 
                 // hosts to which this host will connect
-                val listeningHosts = sortedHosts.subList(0, hindex)
+                val listeningHosts = sortedHosts.subList(0, hindex).filter { it in peers }
 
                 // hosts that will connect to this host
-                val connectingHosts = sortedHosts.subList(hindex + 1, sortedHosts.size)
+                val connectingHosts = sortedHosts.subList(hindex + 1, sortedHosts.size).filter { it in peers }
+
+                // accept connections from hosts with higher ID while connecting to hosts with lower ID
+                val incomingConnections = connectingHosts.toMutableSet()
+
+                if (incomingConnections.size > 0) {
+                    logger.info { "Listening to incoming connections from: ${connectingHosts.joinToString { it.name }}." }
+                }
+
+                val accepting = launch(Dispatchers.IO) {
+                    while (incomingConnections.isNotEmpty()) {
+                        val clientSocket = try {
+                            serverSocket.accept()
+                        } catch (e: SocketException) {
+                            // A failed connection attempt closes the server socket; report that failure instead.
+                            if (serverSocket.isClosed) {
+                                throw CancellationException("Stopped accepting connections.", e)
+                            }
+                            throw e
+                        }
+                        val clientHostId = clientSocket.getInputStream().read()
+                        val clientHost = sortedHosts[clientHostId]
+                        connectionMap[clientHost] = connection(clientHost, clientSocket)
+                        incomingConnections.remove(clientHost)
+
+                        logger.info { "Accepted connection from host ${clientHost.name}." }
+                    }
+                }
 
-                // connect to hosts with lower ID
                 // spawn a coroutine for each host to connect to
-                listeningHosts.map { listeningHost ->
+                val connecting = listeningHosts.map { listeningHost ->
                     launch(Dispatchers.IO) {
                         val listeningHostAddress = hostAddresses[listeningHost]!!
-                        var retries = 0
-                        var connected = false
-                        while (retries < connectionNumRetry && !connected) {
+                        val backoff = ConnectionBackoff(connectionRetryDelay, connectionTimeout)
+                        while (true) {
                             try {
                                 val clientSocket = Socket(listeningHostAddress.hostString, listeningHostAddress.port)
 
                                 // write this host's ID to the socket to identify this host to the remote host
                                 clientSocket.getOutputStream().write(hindex)
-                                connectionMap[listeningHost] = HostConnection(clientSocket)
-                                connected = true
+                                connectionMap[listeningHost] = connection(listeningHost, clientSocket)
 
                                 logger.info { "Connected to host ${listeningHost.name} at $listeningHostAddress." }
+                                break
                             } catch (e: ConnectException) {
-                                logger.info { "Failed to connect to host ${listeningHost.name} at $listeningHostAddress; retrying." }
-                                retries++
-                                delay(connectionRetryDelay)
+                                val retryDelay = backoff.nextDelay() ?: run {
+                                    // unblock the accepting coroutine so the failure can propagate
+                                    serverSocket.close()
+                                    throw HostConnectionException(
+                                        this@TCPNetworkStrategy.host,
+                                        listeningHost,
+                                        listeningHostAddress,
+                                    )
+                                }
+                                logger.info {
+                                    "Failed to connect to host ${listeningHost.name} at $listeningHostAddress; " +
+                                        "retrying in $retryDelay ms."
+                                }
+                                delay(retryDelay)
                             }
                         }
-
-                        if (!connected) {
-                            throw HostConnectionException(
-                                this@TCPNetworkStrategy.host,
-                                listeningHost,
-                                listeningHostAddress,
-                            )
-                        }
                     }
-                }.joinAll()
-
-                // accept connections from hosts with higher ID
-                val incomingConnections = connectingHosts.toMutableSet()
-
-                if (incomingConnections.size > 0) {
-                    logger.info { "Listening to incoming connections from: ${connectingHosts.joinToString { it.name }}." }
-                }
-
-                while (incomingConnections.isNotEmpty()) {
-                    val clientSocket = serverSocket.accept()
-                    val clientHostId = clientSocket.getInputStream().read()
-                    val clientHost = sortedHosts[clientHostId]
-                    connectionMap[clientHost] = HostConnection(clientSocket)
-                    incomingConnections.remove(clientHost)
-
-                    logger.info { "Accepted connection from host ${clientHost.name}." }
                 }
 
-                serverSocket.close()
+                (connecting + accepting).joinAll()
             }
         } catch (e: HostConnectionException) { // if this host failed to connect, clean up opened sockets
             for (connection in this@TCPNetworkStrategy.connectionMap.values) {
                 connection.close()
             }
 
-            serverSocket.close()
-
             // propagate exception up
             throw e
+        } finally {
+            serverSocket.close()
         }
     }
 
@@ -139,6 +353,9 @@ class TCPNetworkStrategy(
     }
 
     override fun close() {
+        // Push out anything still buffered before tearing down the connections.
+        flushAll()
+
         // Closing sockets to other hosts.
         for (kv in connectionMap) {
             logger.info { "Closing connection to host ${kv.key.name}." }
@@ -146,23 +363,71 @@ class TCPNetworkStrategy(
         }
     }
 
-    override fun <T> send(type: KType, value: T, receiver: Host) {
-        return connectionMap[receiver]?.output?.let { socketOut ->
+    override fun <T> send(codec: WireEncoder<T>, value: T, receiver: Host) {
+        return connectionMap[receiver]?.let { connection ->
             logger.trace { "Sending $value to ${receiver.name}." }
 
-            val bytes = ProtoBuf.encodeToByteArray(ProtoBuf.serializersModule.serializer(type), value)
-            val bytesLen = bytes.size
-            socketOut.writeInt(bytesLen)
-            socketOut.write(bytes)
+            withConnection(receiver) { connection.send(codec, value) }
         } ?: throw HostCommunicationException(this.host, receiver)
     }
 
-    override fun <T> receive(type: KType, sender: Host): T {
-        connectionMap[sender]?.input?.let { socketIn ->
-            val bytesLen = socketIn.readInt()
-            val bytes = socketIn.readNBytes(bytesLen)
-            val serializer = ProtoBuf.serializersModule.serializer(type) as KSerializer<T>
-            val value = ProtoBuf.decodeFromByteArray(serializer, bytes)
+    override fun <T> broadcast(codec: WireEncoder<T>, value: T, receivers: Collection<Host>) {
+        logger.trace { "Broadcasting $value to ${receivers.joinToString { it.name }}." }
+
+        broadcastBuffer.clear()
+        val start = broadcastBuffer.beginFrame()
+        codec.encode(value, broadcastBuffer)
+        broadcastBuffer.endFrame(start)
+        val frame = broadcastBuffer.array().copyOf(broadcastBuffer.size)
+
+        // Compress at most once, for the receivers whose connections support it.
+        val anyCompresses = receivers.any { connectionMap[it]?.compresses == true }
+        val compressedFrame =
+            if (anyCompresses && compressor.compress(broadcastBuffer, start)) {
+                broadcastBuffer.array().copyOf(broadcastBuffer.size)
+            } else {
+                frame
+            }
+
+        for (receiver in receivers) {
+            val connection = connectionMap[receiver] ?: throw HostCommunicationException(this.host, receiver)
+            withConnection(receiver) { connection.sendFrame(if (connection.compresses) compressedFrame else frame) }
+        }
+    }
+
+    override fun flush(receiver: Host) {
+        connectionMap[receiver]?.let { connection ->
+            withConnection(receiver) { connection.flush() }
+        } ?: throw HostCommunicationException(this.host, receiver)
+    }
+
+    override fun flushAll() {
+        for ((receiver, connection) in connectionMap) {
+            withConnection(receiver) { connection.flush() }
+        }
+    }
+
+    /** Reports I/O failures on the connection to [peer], including ones from its writer thread. */
+    private inline fun <R> withConnection(peer: Host, action: () -> R): R =
+        try {
+            action()
+        } catch (e: IOException) {
+            throw HostCommunicationException(this.host, peer, e)
+        }
+
+    override fun <T> receive(codec: WireDecoder<T>, sender: Host): T {
+        // The sender may be waiting on messages we have buffered, possibly to a different host.
+        flushAll()
+
+        connectionMap[sender]?.let { connection ->
+            withConnection(sender) { connection.checkFailure() }
+            val buffer = withConnection(sender) { readFrame(connection.input) }
+            val value = try {
+                codec.decode(buffer)
+            } finally {
+                // Codecs materialize values, so nothing refers to the buffer after decoding.
+                receiveBuffers.release(buffer)
+            }
 
             logger.trace { "Received $value from ${sender.name}." }
 
@@ -170,6 +435,31 @@ class TCPNetworkStrategy(
         } ?: throw HostCommunicationException(this.host, sender)
     }
 
+    /** Reads the next frame from [input] into a buffer from [receiveBuffers], decompressing it if necessary. */
+    private fun readFrame(input: DataInputStream): ByteBuffer {
+        val header = input.readInt()
+        val length = header and FrameCompressor.COMPRESSED.inv()
+        if (length > FrameBuffer.MAX_PAYLOAD_SIZE) {
+            throw IOException("Received a frame of invalid length $length.")
+        }
+        val frame = receiveBuffers.acquire(length)
+        try {
+            input.readFully(frame.array(), 0, frame.limit())
+        } catch (e: IOException) {
+            receiveBuffers.release(frame)
+            throw e
+        }
+
+        if (header and FrameCompressor.COMPRESSED == 0) {
+            return frame
+        }
+        try {
+            return FrameCompressor.decompress(frame, receiveBuffers)
+        } finally {
+            receiveBuffers.release(frame)
+        }
+    }
+
     override fun url(host: Host): InetSocketAddress {
         return hostAddresses[host] ?: throw UnknownHostException(host)
     }
@@ -0,0 +1,4 @@
+package io.github.aplcornell.viaduct.runtime
+
+/** Thrown when a task scheduled on a timer fails. The task's exception is the cause. */
+class TimerTaskException(cause: Throwable) : ViaductRuntimeException("A timer task failed.", cause)
@@ -0,0 +1,181 @@
+package io.github.aplcornell.viaduct.runtime
+
+import java.io.Closeable
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * A hashed timer wheel that runs tasks on a single background thread.
+ *
+ * Time is divided into ticks of [tickNanos] nanoseconds, and each task goes into the bucket of the tick it is due in.
+ * Scheduling and expiring a task are constant time, so the cost does not grow with the number of pending tasks.
+ * Tasks run at most one tick late. Tasks due in the same tick run in the order they were scheduled.
+ * The timer thread sleeps until the next tick that has a task due, so an idle timer costs nothing.
+ *
+ * If a task throws, the remaining tasks still run, and the exception is rethrown to the next caller of
+ * [schedule] or [close].
+ */
+internal class TimerWheel(
+    private val tickNanos: Long = DEFAULT_TICK_NANOS,
+    wheelSize: Int = DEFAULT_WHEEL_SIZE,
+) : Closeable {
+    companion object {
+        const val DEFAULT_TICK_NANOS: Long = 100_000
+        const val DEFAULT_WHEEL_SIZE: Int = 1024
+    }
+
+    private class Timeout(val deadline: Long, val task: Runnable) {
+        /** Number of full turns of the wheel left before this timeout expires. */
+        var remainingRounds: Long = 0
+    }
+
+    private val buckets = Array(wheelSize) { ArrayDeque<Timeout>() }
+
+    /** Timeouts scheduled by other threads that have not been placed in a bucket yet. */
+    private val incoming = ConcurrentLinkedQueue<Timeout>()
+
+    private val pending = AtomicInteger()
+
+    /** Number of timeouts in [buckets]. Only accessed by [worker]. */
+    private var placed: Int = 0
+
+    /** The first exception thrown by a task. */
+    private val failure = AtomicReference<Throwable?>()
+
+    private val startTime = System.nanoTime()
+
+    /** The next tick to process. Only accessed by [worker]. */
+    private var tick: Long = 0
+
+    @Volatile
+    private var closing = false
+
+    private val worker = Thread({ run() }, "viaduct-timer").apply {
+        isDaemon = true
+        start()
+    }
+
+    /**
+     * Runs [task] on the timer thread once [System.nanoTime] reaches [deadline].
+     *
+     * @throws TimerTaskException if a previously scheduled task has failed.
+     */
+    fun schedule(deadline: Long, task: Runnable) {
+        checkFailure()
+        check(!closing) { "Timer is closed." }
+        pending.incrementAndGet()
+        incoming.add(Timeout(deadline, task))
+        LockSupport.unpark(worker)
+    }
+
+    private fun run() {
+        while (!closing || pending.get() > 0) {
+            transferIncoming()
+            expireElapsedTicks()
+            if (incoming.isEmpty()) {
+                park()
+            }
+        }
+    }
+
+    /** The number of ticks that have fully elapsed since the timer started. */
+    private fun elapsedTicks(): Long =
+        (System.nanoTime() - startTime) / tickNanos
+
+    /** Processes every tick that has ended, skipping over empty buckets. */
+    private fun expireElapsedTicks() {
+        val elapsed = elapsedTicks()
+        while (tick < elapsed) {
+            val next = nextOccupiedTick()
+            if (next == null || next >= elapsed) {
+                // The buckets up to the current tick are all empty.
+                tick = elapsed
+                return
+            }
+            tick = next
+            expire(buckets[(tick % buckets.size).toInt()])
+            tick++
+        }
+    }
+
+    /** Returns the first tick starting at [tick] whose bucket is not empty, or null if all buckets are empty. */
+    private fun nextOccupiedTick(): Long? {
+        if (placed == 0) {
+            return null
+        }
+        for (offset in 0 until buckets.size) {
+            if (buckets[((tick + offset) % buckets.size).toInt()].isNotEmpty()) {
+                return tick + offset
+            }
+        }
+        return null
+    }
+
+    /** Sleeps until the next occupied tick ends, or until woken by [schedule] or [close] if there is none. */
+    private fun park() {
+        val next = nextOccupiedTick()
+        if (next == null) {
+            if (!closing || pending.get() > 0) {
+                LockSupport.park(this)
+            }
+        } else {
+            val remaining = startTime + (next + 1) * tickNanos - System.nanoTime()
+            if (remaining > 0) {
+                LockSupport.parkNanos(this, remaining)
+            }
+        }
+    }
+
+    private fun transferIncoming() {
+        if (placed == 0) {
+            // Catch up after sleeping so new timeouts are not counted in turns of the wheel that already passed.
+            tick = maxOf(tick, elapsedTicks())
+        }
+        while (true) {
+            val timeout = incoming.poll() ?: return
+            // Timeouts that are already due go in the current bucket.
+            val dueTick = maxOf((timeout.deadline - startTime) / tickNanos, tick)
+            timeout.remainingRounds = (dueTick - tick) / buckets.size
+            buckets[(dueTick % buckets.size).toInt()].addLast(timeout)
+            placed++
+        }
+    }
+
+    private fun expire(bucket: ArrayDeque<Timeout>) {
+        val iterator = bucket.iterator()
+        while (iterator.hasNext()) {
+            val timeout = iterator.next()
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds -= 1
+            } else {
+                iterator.remove()
+                placed--
+                try {
+                    timeout.task.run()
+                } catch (e: Throwable) {
+                    failure.compareAndSet(null, e)
+                } finally {
+                    pending.decrementAndGet()
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for all scheduled tasks to run, then stops the timer thread.
+     *
+     * @throws TimerTaskException if a task has failed.
+     */
+    override fun close() {
+        closing = true
+        LockSupport.unpark(worker)
+        worker.join()
+        checkFailure()
+    }
+
+    private fun checkFailure() {
+        failure.get()?.let { throw TimerTaskException(it) }
+    }
+}
@@ -1,3 +1,3 @@
 package io.github.aplcornell.viaduct.runtime
 
-abstract class ViaductRuntimeException(message: String) : RuntimeException(message)
+abstract class ViaductRuntimeException(message: String, cause: Throwable? = null) : RuntimeException(message, cause)
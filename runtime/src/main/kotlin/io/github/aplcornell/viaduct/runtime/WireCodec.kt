@@ -0,0 +1,36 @@
+package io.github.aplcornell.viaduct.runtime
+
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.protobuf.ProtoBuf
+import java.nio.ByteBuffer
+
+/** Encodes values of type [T] for transmission over the network. */
+interface WireEncoder<in T> {
+    /** Appends the encoding of [value] to [output]. */
+    fun encode(value: T, output: FrameBuffer)
+}
+
+/** Decodes values of type [T] received from the network. */
+interface WireDecoder<out T> {
+    /** Decodes a value from the remaining bytes of [input]. */
+    fun decode(input: ByteBuffer): T
+}
+
+/** Encodes and decodes values of type [T], so it can be used on both ends of a connection. */
+interface WireCodec<T> : WireEncoder<T>, WireDecoder<T>
+
+/** Encodes values using [ProtoBuf]. Used for types that have no dedicated codec. */
+@OptIn(ExperimentalSerializationApi::class)
+class ProtoBufCodec<T>(private val serializer: KSerializer<T>) : WireCodec<T> {
+    override fun encode(value: T, output: FrameBuffer) {
+        val bytes = ProtoBuf.encodeToByteArray(serializer, value)
+        output.reserve(bytes.size).put(bytes)
+    }
+
+    override fun decode(input: ByteBuffer): T {
+        val bytes = ByteArray(input.remaining())
+        input.get(bytes)
+        return ProtoBuf.decodeFromByteArray(serializer, bytes)
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.runtime.commitment.Commitment
+import io.github.aplcornell.viaduct.runtime.commitment.Committed
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.reflect.KClass
+import kotlin.reflect.KType
+
+private val codecs = ConcurrentHashMap<KType, WireCodec<*>>()
+
+/**
+ * Returns the codec for [type].
+ *
+ * Scalars, primitive arrays, and commitments are written directly into the frame buffer.
+ * All other types fall back to [ProtoBufCodec].
+ */
+@Suppress("UNCHECKED_CAST")
+internal fun <T> wireCodecFor(type: KType): WireCodec<T> =
+    codecs.getOrPut(type) { primitiveCodecFor(type) ?: ProtoBufCodec(serializerFor<Any?>(type)) } as WireCodec<T>
+
+private fun primitiveCodecFor(type: KType): WireCodec<*>? {
+    val classifier = type.classifier as? KClass<*>
+    if (type.isMarkedNullable || classifier == null) {
+        return null
+    }
+
+    // Kotlin reflection reports primitive array classifiers for arrays of boxed primitives,
+    // so tell them apart by the element type argument, which only boxed arrays have.
+    if (classifier.java.isArray && type.arguments.isNotEmpty()) {
+        return when (type.arguments.single().type?.takeUnless { it.isMarkedNullable }?.classifier) {
+            Int::class -> BoxedIntArrayCodec
+            Boolean::class -> BoxedBooleanArrayCodec
+            else -> null
+        }
+    }
+
+    return when (classifier) {
+        Int::class -> IntCodec
+        Boolean::class -> BooleanCodec
+        Unit::class -> UnitCodec
+        ByteArray::class -> ByteArrayCodec
+        IntArray::class -> IntArrayCodec
+        BooleanArray::class -> BooleanArrayCodec
+        Commitment::class -> CommitmentCodec
+        Committed::class -> type.arguments.single().type?.let { CommittedCodec(wireCodecFor<Any?>(it)) }
+        else -> null
+    }
+}
+
+/**
+ * Reads the length of an array whose elements take [elementSize] bytes each.
+ * The length comes from the peer, so it is checked against the bytes left in [input] before anything is allocated.
+ */
+private fun ByteBuffer.getLength(elementSize: Int): Int {
+    val length = getInt()
+    if (length !in 0..remaining() / elementSize) {
+        throw IOException("Received an array of invalid length $length.")
+    }
+    return length
+}
+
+private object IntCodec : WireCodec<Int> {
+    override fun encode(value: Int, output: FrameBuffer) {
+        output.reserve(Int.SIZE_BYTES).putInt(value)
+    }
+
+    override fun decode(input: ByteBuffer): Int =
+        input.getInt()
+}
+
+private object BooleanCodec : WireCodec<Boolean> {
+    override fun encode(value: Boolean, output: FrameBuffer) {
+        output.reserve(1).put((if (value) 1 else 0).toByte())
+    }
+
+    override fun decode(input: ByteBuffer): Boolean =
+        input.get() != 0.toByte()
+}
+
+private object UnitCodec : WireCodec<Unit> {
+    override fun encode(value: Unit, output: FrameBuffer) {}
+
+    override fun decode(input: ByteBuffer) {}
+}
+
+private object ByteArrayCodec : WireCodec<ByteArray> {
+    override fun encode(value: ByteArray, output: FrameBuffer) {
+        output.reserve(Int.SIZE_BYTES + value.size).putInt(value.size).put(value)
+    }
+
+    override fun decode(input: ByteBuffer): ByteArray =
+        ByteArray(input.getLength(1)).also { input.get(it) }
+}
+
+private object IntArrayCodec : WireCodec<IntArray> {
+    override fun encode(value: IntArray, output: FrameBuffer) {
+        val buffer = output.reserve(Int.SIZE_BYTES * (1 + value.size)).putInt(value.size)
+        buffer.asIntBuffer().put(value)
+        buffer.position(buffer.position() + Int.SIZE_BYTES * value.size)
+    }
+
+    override fun decode(input: ByteBuffer): IntArray {
+        val array = IntArray(input.getLength(Int.SIZE_BYTES))
+        input.asIntBuffer().get(array)
+        input.position(input.position() + Int.SIZE_BYTES * array.size)
+        return array
+    }
+}
+
+private object BooleanArrayCodec : WireCodec<BooleanArray> {
+    override fun encode(value: BooleanArray, output: FrameBuffer) {
+        val buffer = output.reserve(Int.SIZE_BYTES + value.size).putInt(value.size)
+        for (element in value) {
+            buffer.put((if (element) 1 else 0).toByte())
+        }
+    }
+
+    override fun decode(input: ByteBuffer): BooleanArray =
+        BooleanArray(input.getLength(1)) { input.get() != 0.toByte() }
+}
+
+private object BoxedIntArrayCodec : WireCodec<Array<Int>> {
+    override fun encode(value: Array<Int>, output: FrameBuffer) {
+        val buffer = output.reserve(Int.SIZE_BYTES * (1 + value.size)).putInt(value.size)
+        for (element in value) {
+            buffer.putInt(element)
+        }
+    }
+
+    override fun decode(input: ByteBuffer): Array<Int> =
+        Array(input.getLength(Int.SIZE_BYTES)) { input.getInt() }
+}
+
+private object BoxedBooleanArrayCodec : WireCodec<Array<Boolean>> {
+    override fun encode(value: Array<Boolean>, output: FrameBuffer) {
+        val buffer = output.reserve(Int.SIZE_BYTES + value.size).putInt(value.size)
+        for (element in value) {
+            buffer.put((if (element) 1 else 0).toByte())
+        }
+    }
+
+    override fun decode(input: ByteBuffer): Array<Boolean> =
+        Array(input.getLength(1)) { input.get() != 0.toByte() }
+}
+
+private object CommitmentCodec : WireCodec<Commitment<Any?>> {
+    override fun encode(value: Commitment<Any?>, output: FrameBuffer) =
+        ByteArrayCodec.encode(value.hash, output)
+
+    override fun decode(input: ByteBuffer): Commitment<Any?> =
+        Commitment(ByteArrayCodec.decode(input))
+}
+
+private class CommittedCodec<T>(private val valueCodec: WireCodec<T>) : WireCodec<Committed<T>> {
+    override fun encode(value: Committed<T>, output: FrameBuffer) {
+        ByteArrayCodec.encode(value.nonce, output)
+        valueCodec.encode(value.value, output)
+    }
+
+    override fun decode(input: ByteBuffer): Committed<T> {
+        val nonce = ByteArrayCodec.decode(input)
+        return Committed(valueCodec.decode(input), nonce)
+    }
+}
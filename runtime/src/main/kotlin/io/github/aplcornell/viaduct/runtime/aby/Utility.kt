@@ -4,7 +4,6 @@ import io.github.apl_cornell.aby.Aby
 import io.github.apl_cornell.aby.Circuit
 import io.github.apl_cornell.aby.Share
 import io.github.apl_cornell.aby.UInt32Vector
-import java.math.BigInteger
 
 /** Implements bitwise not */
 fun Circuit.putNOTGate(input: Share): Share {
@@ -14,31 +13,170 @@ fun Circuit.putNOTGate(input: Share): Share {
     return Aby.createNewShare(UInt32Vector(inverses), this)
 }
 
-fun Circuit.secretIndexQuery(indexValue: Share, shareVector: Array<Share>): Share {
+/**
+ * The gates that secret indexing is built from.
+ * Abstracting over them lets the indexing circuits be checked on plain integers, without running ABY.
+ */
+internal interface IndexGates<S> {
+    /** A 32-bit constant. */
+    fun constant(value: Int): S
+
+    fun equalTo(left: S, right: S): S
+
+    /** Unsigned 32-bit comparison. */
+    fun greaterThan(left: S, right: S): S
+
+    /** Conjunction of single-bit shares. */
+    fun and(left: S, right: S): S
+
+    /** The [bit]th least significant bit of [share]. */
+    fun bit(share: S, bit: Int): S
+
+    /** The negation of the [bit]th least significant bit of [share]. */
+    fun notBit(share: S, bit: Int): S
+
+    /** [ifTrue] if [condition] is set and [ifFalse] otherwise. */
+    fun select(condition: S, ifTrue: S, ifFalse: S): S
+}
+
+/** [IndexGates] backed by an ABY [Circuit]. */
+private class CircuitIndexGates(private val circuit: Circuit) : IndexGates<Share> {
+    override fun constant(value: Int): Share =
+        circuit.putCONSGate(value.toBigInteger(), 32)
+
+    override fun equalTo(left: Share, right: Share): Share =
+        circuit.putEQGate(left, right)
+
+    override fun greaterThan(left: Share, right: Share): Share =
+        circuit.putGTGate(left, right)
+
+    override fun and(left: Share, right: Share): Share =
+        circuit.putANDGate(left, right)
+
+    override fun bit(share: Share, bit: Int): Share =
+        Aby.createNewShare(UInt32Vector(listOf(share.wires[bit])), circuit)
+
+    override fun notBit(share: Share, bit: Int): Share =
+        Aby.createNewShare(UInt32Vector(listOf(circuit.putINVGate(share.wires[bit]))), circuit)
+
+    // ABY's multiplexer takes the selector last: PutMUXGate(ina, inb, sel) is ina if sel is set, and inb otherwise.
+    override fun select(condition: Share, ifTrue: Share, ifFalse: Share): Share =
+        circuit.putMUXGate(ifTrue, ifFalse, condition)
+}
+
+fun Circuit.secretIndexQuery(indexValue: Share, shareVector: Array<Share>): Share =
+    CircuitIndexGates(this).linearQuery(indexValue, shareVector)
+
+fun Array<Share>.secretUpdateModify(circuit: Circuit, index: Share, operation: (Share) -> Share) =
+    CircuitIndexGates(circuit).linearUpdate(this, index, operation)
+
+fun Array<Share>.secretUpdateSet(circuit: Circuit, index: Share, argument: Share) =
+    CircuitIndexGates(circuit).linearUpdate(this, index) { argument }
+
+/** Vectors at least this long are accessed with [secretIndexQueryTree] and [secretUpdateSetDecoded]. */
+const val SECRET_INDEX_TREE_THRESHOLD: Int = 8
+
+/** Reads [shareVector] at a secret [indexValue], using whichever circuit is cheaper for its length. */
+fun Circuit.obliviousIndexQuery(indexValue: Share, shareVector: Array<Share>): Share =
+    CircuitIndexGates(this).obliviousQuery(indexValue, shareVector)
+
+/** Applies [operation] to the element at a secret [index], using whichever circuit is cheaper for the length. */
+fun Array<Share>.obliviousUpdateModify(circuit: Circuit, index: Share, operation: (Share) -> Share) =
+    CircuitIndexGates(circuit).obliviousUpdate(this, index, operation)
+
+/** Sets the element at a secret [index] to [argument], using whichever circuit is cheaper for the length. */
+fun Array<Share>.obliviousUpdateSet(circuit: Circuit, index: Share, argument: Share) =
+    CircuitIndexGates(circuit).obliviousUpdate(this, index) { argument }
+
+/**
+ * Like [secretIndexQuery], but selects the element with a binary tree of multiplexers driven by the bits of
+ * [indexValue], so the circuit has depth O(log n) and needs a single comparison (the bounds check).
+ * Requires a Boolean circuit.
+ */
+fun Circuit.secretIndexQueryTree(indexValue: Share, shareVector: Array<Share>): Share =
+    CircuitIndexGates(this).treeQuery(indexValue, shareVector)
+
+/** Like [secretUpdateModify], but selects the element to update using a shared one-hot decoder. */
+fun Array<Share>.secretUpdateModifyDecoded(circuit: Circuit, index: Share, operation: (Share) -> Share) =
+    CircuitIndexGates(circuit).decodedUpdate(this, index, operation)
+
+/** Like [secretUpdateSet], but selects the element to update using a shared one-hot decoder. */
+fun Array<Share>.secretUpdateSetDecoded(circuit: Circuit, index: Share, argument: Share) =
+    CircuitIndexGates(circuit).decodedUpdate(this, index) { argument }
+
+internal fun <S> IndexGates<S>.obliviousQuery(index: S, vector: Array<S>): S =
+    if (vector.size >= SECRET_INDEX_TREE_THRESHOLD) {
+        treeQuery(index, vector)
+    } else {
+        linearQuery(index, vector)
+    }
+
+internal fun <S> IndexGates<S>.obliviousUpdate(vector: Array<S>, index: S, operation: (S) -> S) =
+    if (vector.size >= SECRET_INDEX_TREE_THRESHOLD) {
+        decodedUpdate(vector, index, operation)
+    } else {
+        linearUpdate(vector, index, operation)
+    }
+
+internal fun <S> IndexGates<S>.linearQuery(index: S, vector: Array<S>): S {
+    // return 0 in case of indexing error
+    var current = constant(0)
+    for (i in vector.indices) {
+        current = select(equalTo(index, constant(i)), vector[i], current)
+    }
+    return current
+}
+
+internal fun <S> IndexGates<S>.linearUpdate(vector: Array<S>, index: S, operation: (S) -> S) {
+    for (i in vector.indices) {
+        val updated = operation(vector[i])
+        vector[i] = select(equalTo(index, constant(i)), updated, vector[i])
+    }
+}
+
+/** Number of index bits needed to address [size] elements. */
+private fun indexBits(size: Int): Int =
+    Int.SIZE_BITS - (size - 1).coerceAtLeast(0).countLeadingZeroBits()
+
+/** Whether [index] is a valid index into a vector of length [size]. */
+private fun <S> IndexGates<S>.inBounds(index: S, size: Int): S =
+    greaterThan(constant(size), index)
+
+internal fun <S> IndexGates<S>.treeQuery(index: S, vector: Array<S>): S {
     // return 0 in case of indexing error
-    var currentShare = this.putCONSGate(BigInteger.ZERO, 32)
-    for (i in shareVector.indices) {
-        val guard = this.putEQGate(indexValue, this.putCONSGate(i.toBigInteger(), 32))
-        val mux = this.putMUXGate(guard, shareVector[i], currentShare)
-        currentShare = mux
+    val zero = constant(0)
+    if (vector.isEmpty()) {
+        return zero
+    }
+
+    var level: List<S> = vector.asList()
+    for (position in 0 until indexBits(vector.size)) {
+        val selector = bit(index, position)
+        level = List((level.size + 1) / 2) { i ->
+            select(selector, level.getOrElse(2 * i + 1) { zero }, level[2 * i])
+        }
     }
-    return currentShare
+    return select(inBounds(index, vector.size), level.single(), zero)
 }
 
-fun Array<Share>.secretUpdateModify(circuit: Circuit, index: Share, operation: (Share) -> Share) {
-    for (i in this.indices) {
-        val rhs = operation(this[i])
-        val guard = circuit.putEQGate(index, circuit.putCONSGate(i.toBigInteger(), 32))
-        val mux = circuit.putMUXGate(this[i], rhs, guard)
-        this[i] = mux
+/**
+ * Decodes the secret [index] into one selector bit per element, which is set only for the element at [index].
+ * Selectors for all prefixes of the index bits are shared, so this takes about 2n AND gates and has depth O(log n).
+ */
+private fun <S> IndexGates<S>.oneHotDecode(index: S, size: Int): List<S> {
+    var selectors: List<S> = listOf(inBounds(index, size))
+    for (position in indexBits(size) - 1 downTo 0) {
+        val set = bit(index, position)
+        val unset = notBit(index, position)
+        selectors = selectors.flatMap { prefix -> listOf(and(prefix, unset), and(prefix, set)) }
     }
+    return selectors.take(size)
 }
 
-fun Array<Share>.secretUpdateSet(circuit: Circuit, index: Share, argument: Share) {
-    for (i in this.indices) {
-        val guard = circuit.putEQGate(index, circuit.putCONSGate(i.toBigInteger(), 32))
-        val mux = circuit.putMUXGate(this[i], argument, guard)
-        this[i] = mux
+internal fun <S> IndexGates<S>.decodedUpdate(vector: Array<S>, index: S, operation: (S) -> S) {
+    val selectors = oneHotDecode(index, vector.size)
+    for (i in vector.indices) {
+        vector[i] = select(selectors[i], operation(vector[i]), vector[i])
     }
 }
 
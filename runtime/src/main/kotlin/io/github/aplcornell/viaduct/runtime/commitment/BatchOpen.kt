@@ -0,0 +1,22 @@
+package io.github.aplcornell.viaduct.runtime.commitment
+
+import io.github.aplcornell.viaduct.runtime.commitment.Committed.Companion.commitment
+
+/**
+ * Opens [commitments], all of which must commit to [secret], and returns the committed value.
+ *
+ * Equivalent to opening each commitment in turn, but [secret] is hashed only once
+ * and each commitment is then checked by comparing hashes.
+ *
+ * @throws InvalidCommitmentException if [secret] does not open one of [commitments].
+ */
+inline fun <reified T> openAll(secret: Committed<T>, vararg commitments: Commitment<T>): T {
+    if (secret.nonce.size != Committed.NONCE_LENGTH) {
+        throw InvalidCommitmentException(secret.value)
+    }
+    val hash = secret.commitment().hash
+    if (commitments.any { !it.hash.contentEquals(hash) }) {
+        throw InvalidCommitmentException(secret.value)
+    }
+    return secret.value
+}
@@ -0,0 +1,82 @@
+package io.github.aplcornell.viaduct.runtime.commitment
+
+import java.security.MessageDigest
+
+/**
+ * Feeds values straight into a [MessageDigest] using the same bytes as
+ * [kotlinx.serialization.protobuf.ProtoBuf.encodeToByteArray], without building the encoding first.
+ *
+ * Covers the types programs commit to: [Int], [Boolean], [String], and arrays of these (including nested arrays).
+ * Top-level values are encoded without field tags: integers as varints, strings as a varint length and UTF-8 bytes,
+ * and arrays as a varint element count followed by each element.
+ */
+@PublishedApi
+internal object CommitmentEncoding {
+    private val digests: ThreadLocal<MessageDigest> = ThreadLocal.withInitial { MessageDigest.getInstance("SHA-256") }
+
+    /** Returns this thread's SHA-256 digest, reset and ready for use. */
+    fun digest(): MessageDigest =
+        digests.get().apply { reset() }
+
+    /**
+     * Adds the encoding of [value] to [digest].
+     * Returns `false` if [value] is not of a supported type, in which case [digest] must be reset.
+     */
+    fun update(digest: MessageDigest, value: Any?): Boolean {
+        when (value) {
+            is Int -> digest.updateVarInt(value.toLong())
+
+            is Boolean -> digest.update((if (value) 1 else 0).toByte())
+
+            is String -> {
+                val bytes = value.encodeToByteArray()
+                digest.updateVarInt(bytes.size.toLong())
+                digest.update(bytes)
+            }
+
+            is IntArray -> {
+                digest.updateVarInt(value.size.toLong())
+                value.forEach { digest.updateVarInt(it.toLong()) }
+            }
+
+            is BooleanArray -> {
+                digest.updateVarInt(value.size.toLong())
+                value.forEach { digest.update((if (it) 1 else 0).toByte()) }
+            }
+
+            is Array<*> -> {
+                digest.updateVarInt(value.size.toLong())
+                for (element in value) {
+                    if (!update(digest, element)) {
+                        return false
+                    }
+                }
+            }
+
+            else -> return false
+        }
+        return true
+    }
+
+    /** Adds [value] as a protocol buffers varint. Negative numbers take ten bytes, as in ProtoBuf. */
+    private fun MessageDigest.updateVarInt(value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            update(((remaining and 0x7FL) or 0x80L).toByte())
+            remaining = remaining ushr 7
+        }
+        update(remaining.toByte())
+    }
+}
+
+/** Computes the commitment hash of [value] and [nonce], calling [encoding] only for unsupported types. */
+@PublishedApi
+internal inline fun commitmentHash(value: Any?, nonce: ByteArray, encoding: () -> ByteArray): ByteArray {
+    val digest = CommitmentEncoding.digest()
+    if (!CommitmentEncoding.update(digest, value)) {
+        digest.reset()
+        digest.update(encoding())
+    }
+    digest.update(nonce)
+    return digest.digest()
+}
@@ -5,35 +5,27 @@ import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.encodeToByteArray
 import kotlinx.serialization.protobuf.ProtoBuf
-import java.security.MessageDigest
-import java.security.SecureRandom
 
 /** A value committed to. Packages the value and the secret needed to open the [Commitment]. */
 @Serializable
-class Committed<T> private constructor(val value: T, val nonce: ByteArray) {
-    constructor(value: T) : this(
+class Committed<T> internal constructor(val value: T, val nonce: ByteArray) {
+    /** Commits to [value] using a fresh nonce from [nonceSource]. */
+    constructor(value: T, nonceSource: NonceSource = NonceSource.default) : this(
         value = value,
-        nonce = ByteArray(NONCE_LENGTH).apply {
-            secureRandom.nextBytes(this)
-        },
+        nonce = nonceSource.nextBytes(NONCE_LENGTH),
     )
 
     companion object {
         /** Size of each nonce in bytes. */
         const val NONCE_LENGTH = 256 / 8
 
-        private val secureRandom = SecureRandom.getInstanceStrong()
-
         /** A statically fixed nonce that is not random at all. Used to create fake commitments. */
         private val fakeNonce = ByteArray(NONCE_LENGTH)
 
+        /** Hashes the ProtoBuf encoding of [value] followed by [nonce]; see [CommitmentEncoding]. */
         @OptIn(ExperimentalSerializationApi::class)
         inline fun <reified T> Committed<T>.commitment(): Commitment<T> =
-            MessageDigest.getInstance("SHA-256").run {
-                update(ProtoBuf.encodeToByteArray(value))
-                update(nonce)
-                Commitment(digest())
-            }
+            Commitment(commitmentHash(value, nonce) { ProtoBuf.encodeToByteArray(value) })
 
         /**
          * A commitment to a known value. Note that the returned commitment has no hiding property.
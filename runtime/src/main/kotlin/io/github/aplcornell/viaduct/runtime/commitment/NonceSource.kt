@@ -0,0 +1,108 @@
+package io.github.aplcornell.viaduct.runtime.commitment
+
+import java.security.SecureRandom
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/** Generates the random nonces that hide committed values. */
+fun interface NonceSource {
+    /** Fills [bytes] with fresh random bytes. */
+    fun nextBytes(bytes: ByteArray)
+
+    companion object {
+        /** The source used when none is given explicitly. Can be replaced, for example, to make runs repeatable. */
+        @Volatile
+        var default: NonceSource = DrbgNonceSource()
+    }
+}
+
+/** Returns [length] fresh random bytes from this source. */
+fun NonceSource.nextBytes(length: Int): ByteArray =
+    ByteArray(length).also { nextBytes(it) }
+
+/**
+ * A [NonceSource] that gives each thread its own HMAC-DRBG (NIST SP 800-90A) with SHA-256.
+ *
+ * Each generator is seeded from [entropySource] when a thread first asks for a nonce,
+ * and reseeded from it after every [reseedInterval] requests. Apart from that, threads never touch
+ * [entropySource], so they neither contend with each other nor wait for the system's entropy pool.
+ */
+class DrbgNonceSource(
+    private val entropySource: SecureRandom = SecureRandom.getInstanceStrong(),
+    private val reseedInterval: Int = DEFAULT_RESEED_INTERVAL,
+) : NonceSource {
+    companion object {
+        const val DEFAULT_RESEED_INTERVAL: Int = 1 shl 16
+
+        /** Bytes of entropy drawn from the entropy source per (re)seed. */
+        private const val SEED_LENGTH: Int = 48
+    }
+
+    private val generators: ThreadLocal<HmacDrbg> = ThreadLocal.withInitial { HmacDrbg(seed()) }
+
+    private fun seed(): ByteArray =
+        synchronized(entropySource) {
+            ByteArray(SEED_LENGTH).also { entropySource.nextBytes(it) }
+        }
+
+    override fun nextBytes(bytes: ByteArray) {
+        val generator = generators.get()
+        if (generator.requests >= reseedInterval) {
+            generator.reseed(seed())
+        }
+        generator.generate(bytes)
+    }
+}
+
+/**
+ * The HMAC_DRBG construction from NIST SP 800-90A, without prediction resistance or additional input.
+ *
+ * [seed] is the seed material: the entropy input followed by the nonce and the personalization string, if any.
+ */
+internal class HmacDrbg(seed: ByteArray) {
+    private val mac: Mac = Mac.getInstance("HmacSHA256")
+
+    private var key = ByteArray(mac.macLength)
+
+    private var value = ByteArray(mac.macLength) { 1 }
+
+    /** Number of [generate] calls since the last (re)seed. */
+    var requests: Int = 0
+        private set
+
+    init {
+        reseed(seed)
+    }
+
+    private fun hmac(vararg parts: ByteArray): ByteArray {
+        mac.init(SecretKeySpec(key, mac.algorithm))
+        parts.forEach { mac.update(it) }
+        return mac.doFinal()
+    }
+
+    private fun update(data: ByteArray) {
+        key = hmac(value, byteArrayOf(0), data)
+        value = hmac(value)
+        if (data.isNotEmpty()) {
+            key = hmac(value, byteArrayOf(1), data)
+            value = hmac(value)
+        }
+    }
+
+    fun reseed(seed: ByteArray) {
+        update(seed)
+        requests = 0
+    }
+
+    fun generate(output: ByteArray) {
+        var offset = 0
+        while (offset < output.size) {
+            value = hmac(value)
+            val length = minOf(value.size, output.size - offset)
+            System.arraycopy(value, 0, output, offset, length)
+            offset += length
+        }
+        update(ByteArray(0))
+        requests++
+    }
+}
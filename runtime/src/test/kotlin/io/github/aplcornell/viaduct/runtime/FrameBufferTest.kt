@@ -0,0 +1,71 @@
+package io.github.aplcornell.viaduct.runtime
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+
+internal class FrameBufferTest {
+    @Test
+    fun `empty frames only have a header`() {
+        val buffer = FrameBuffer()
+        val start = buffer.beginFrame()
+        buffer.endFrame(start)
+
+        assertEquals(FrameBuffer.HEADER_SIZE, buffer.size)
+        assertEquals(0, ByteBuffer.wrap(buffer.array()).getInt(start))
+    }
+
+    @Test
+    fun `frames are prefixed with their payload length`() {
+        val buffer = FrameBuffer()
+        val start = buffer.beginFrame()
+        buffer.reserve(3).put(byteArrayOf(1, 2, 3))
+        buffer.endFrame(start)
+
+        assertEquals(FrameBuffer.HEADER_SIZE + 3, buffer.size)
+        val bytes = ByteBuffer.wrap(buffer.array(), 0, buffer.size)
+        assertEquals(3, bytes.getInt())
+        assertArrayEquals(byteArrayOf(1, 2, 3), ByteArray(3).also { bytes.get(it) })
+    }
+
+    @Test
+    fun `consecutive frames are laid out back to back`() {
+        val buffer = FrameBuffer()
+        for (length in listOf(0, 5, 2)) {
+            val start = buffer.beginFrame()
+            buffer.reserve(length).put(ByteArray(length) { length.toByte() })
+            buffer.endFrame(start)
+        }
+
+        val bytes = ByteBuffer.wrap(buffer.array(), 0, buffer.size)
+        for (length in listOf(0, 5, 2)) {
+            assertEquals(length, bytes.getInt())
+            repeat(length) { assertEquals(length.toByte(), bytes.get()) }
+        }
+        assertEquals(0, bytes.remaining())
+    }
+
+    @Test
+    fun `reserve grows the buffer and keeps written bytes`() {
+        val buffer = FrameBuffer(initialCapacity = 2)
+        val start = buffer.beginFrame()
+        val payload = ByteArray(10_000) { it.toByte() }
+        buffer.reserve(payload.size).put(payload)
+        buffer.endFrame(start)
+
+        val bytes = ByteBuffer.wrap(buffer.array(), 0, buffer.size)
+        assertEquals(payload.size, bytes.getInt())
+        assertArrayEquals(payload, ByteArray(payload.size).also { bytes.get(it) })
+    }
+
+    @Test
+    fun `clear discards written frames`() {
+        val buffer = FrameBuffer()
+        buffer.endFrame(buffer.beginFrame())
+        buffer.clear()
+
+        assertEquals(0, buffer.size)
+        assertEquals(0, buffer.beginFrame())
+    }
+}
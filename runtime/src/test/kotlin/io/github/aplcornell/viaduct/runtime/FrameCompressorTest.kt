@@ -0,0 +1,114 @@
+package io.github.aplcornell.viaduct.runtime
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.IOException
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+internal class FrameCompressorTest {
+    private fun frame(buffer: FrameBuffer, payload: ByteArray): Int {
+        val start = buffer.beginFrame()
+        buffer.reserve(payload.size).put(payload)
+        buffer.endFrame(start)
+        return start
+    }
+
+    /** Returns the header and payload of the frame at [start], which must be the last frame in [buffer]. */
+    private fun read(buffer: FrameBuffer, start: Int): Pair<Int, ByteBuffer> {
+        val header = ByteBuffer.wrap(buffer.array()).getInt(start)
+        val payload = buffer.array().copyOfRange(start + FrameBuffer.HEADER_SIZE, buffer.size)
+        assertEquals(header and FrameCompressor.COMPRESSED.inv(), payload.size)
+        return Pair(header, ByteBuffer.wrap(payload))
+    }
+
+    private fun decompress(payload: ByteBuffer): ByteArray {
+        val output = FrameCompressor.decompress(payload, BufferPool())
+        return output.array().copyOf(output.limit())
+    }
+
+    @Test
+    fun `small payloads are not compressed`() {
+        val buffer = FrameBuffer()
+        val start = frame(buffer, ByteArray(FrameCompressor.DEFAULT_THRESHOLD - 1))
+
+        assertFalse(FrameCompressor().compress(buffer, start))
+        val (header, _) = read(buffer, start)
+        assertEquals(FrameCompressor.DEFAULT_THRESHOLD - 1, header)
+    }
+
+    @Test
+    fun `compressible payloads are compressed in place`() {
+        val payload = ByteArray(10_000) { (it % 7).toByte() }
+        val buffer = FrameBuffer()
+        val first = frame(buffer, byteArrayOf(1, 2, 3))
+        val start = frame(buffer, payload)
+
+        assertTrue(FrameCompressor().compress(buffer, start))
+        val (header, compressed) = read(buffer, start)
+        assertTrue(header and FrameCompressor.COMPRESSED != 0)
+        assertTrue(compressed.remaining() < payload.size)
+        assertArrayEquals(payload, decompress(compressed))
+        assertEquals(3, ByteBuffer.wrap(buffer.array()).getInt(first))
+    }
+
+    @Test
+    fun `incompressible payloads are left as they are`() {
+        val payload = Random(0).nextBytes(10_000)
+        val buffer = FrameBuffer()
+        val start = frame(buffer, payload)
+
+        assertFalse(FrameCompressor().compress(buffer, start))
+        val (header, bytes) = read(buffer, start)
+        assertEquals(payload.size, header)
+        assertArrayEquals(payload, bytes.array())
+    }
+
+    @Test
+    fun `compressors can be reused for frames of different sizes`() {
+        val compressor = FrameCompressor(threshold = 16)
+        for (length in listOf(100, 100_000, 1000)) {
+            val payload = ByteArray(length) { (it / 100).toByte() }
+            val buffer = FrameBuffer()
+            val start = frame(buffer, payload)
+
+            assertTrue(compressor.compress(buffer, start))
+            val (_, compressed) = read(buffer, start)
+            assertArrayEquals(payload, decompress(compressed))
+        }
+    }
+
+    @Test
+    fun `payloads without a length are rejected`() {
+        assertThrows<IOException> { decompress(ByteBuffer.wrap(byteArrayOf(0, 0, 1))) }
+    }
+
+    @Test
+    fun `negative lengths are rejected`() {
+        assertThrows<IOException> { decompress(ByteBuffer.allocate(8).putInt(-1).putInt(0).flip()) }
+    }
+
+    @Test
+    fun `lengths above the maximum payload size are rejected before allocating`() {
+        val payload = ByteBuffer.allocate(8).putInt(Int.MAX_VALUE).putInt(0).flip()
+        assertThrows<IOException> { decompress(payload) }
+    }
+
+    @Test
+    fun `truncated payloads are rejected`() {
+        val payload = ByteArray(10_000) { (it % 7).toByte() }
+        val buffer = FrameBuffer()
+        val start = frame(buffer, payload)
+        assertTrue(FrameCompressor().compress(buffer, start))
+        val (_, compressed) = read(buffer, start)
+
+        for (length in Int.SIZE_BYTES until compressed.limit()) {
+            val truncated = ByteBuffer.wrap(compressed.array().copyOf(length))
+            assertThrows<IOException> { decompress(truncated) }
+        }
+    }
+}
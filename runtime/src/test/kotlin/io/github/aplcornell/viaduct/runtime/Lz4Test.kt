@@ -0,0 +1,152 @@
+package io.github.aplcornell.viaduct.runtime
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.IOException
+import kotlin.random.Random
+
+internal class Lz4Test {
+    private fun compress(input: ByteArray): ByteArray {
+        val output = ByteArray(Lz4.maxCompressedSize(input.size))
+        val size = Lz4.compress(input, 0, input.size, output, 0, IntArray(Lz4.HASH_TABLE_SIZE))
+        return output.copyOf(size)
+    }
+
+    private fun decompress(compressed: ByteArray, decompressedLength: Int): ByteArray {
+        val output = ByteArray(decompressedLength)
+        Lz4.decompress(compressed, 0, compressed.size, output, 0, decompressedLength)
+        return output
+    }
+
+    private fun assertRoundTrips(input: ByteArray): ByteArray {
+        val compressed = compress(input)
+        assertTrue(compressed.size <= Lz4.maxCompressedSize(input.size))
+        assertArrayEquals(input, decompress(compressed, input.size))
+        return compressed
+    }
+
+    @Test
+    fun `empty input round trips`() {
+        assertArrayEquals(byteArrayOf(0), assertRoundTrips(ByteArray(0)))
+    }
+
+    @Test
+    fun `inputs too short to match are stored as literals`() {
+        for (length in 1 until 12) {
+            val compressed = assertRoundTrips(ByteArray(length))
+            assertEquals(1 + length, compressed.size)
+        }
+    }
+
+    @Test
+    fun `long runs compress to overlapping matches`() {
+        for (length in listOf(12, 100, 10_000, 100_000)) {
+            val input = ByteArray(length) { (it % 3).toByte() }
+            val compressed = assertRoundTrips(input)
+            assertTrue(compressed.size < length / 2 + 12, "$length bytes compressed to ${compressed.size}")
+        }
+    }
+
+    @Test
+    fun `incompressible input round trips`() {
+        val random = Random(0)
+        for (length in listOf(12, 1000, 100_000)) {
+            assertRoundTrips(random.nextBytes(length))
+        }
+    }
+
+    @Test
+    fun `inputs at offsets round trip`() {
+        val input = ByteArray(300) { (it / 7).toByte() }
+        val output = ByteArray(3 + Lz4.maxCompressedSize(200))
+        val size = Lz4.compress(input, 50, 200, output, 3, IntArray(Lz4.HASH_TABLE_SIZE))
+
+        val decompressed = ByteArray(210)
+        Lz4.decompress(output, 3, size, decompressed, 10, 200)
+        assertArrayEquals(input.copyOfRange(50, 250), decompressed.copyOfRange(10, 210))
+    }
+
+    @Test
+    fun `long literal and match lengths round trip`() {
+        val lengths = listOf(0, 1, 14, 15, 16, 269, 270, 271, 524, 525, 1000)
+        for (literalLength in lengths) {
+            for (runLength in lengths) {
+                val random = Random(literalLength * 31 + runLength)
+                val input = random.nextBytes(literalLength) + ByteArray(runLength + MIN_MATCH) + random.nextBytes(16)
+                assertRoundTrips(input)
+            }
+        }
+    }
+
+    @Test
+    fun `long literal lengths are decoded`() {
+        // 15 + 255 + 0 = 270 literals.
+        val literals = Random(1).nextBytes(270)
+        val compressed = byteArrayOf(0xF0.toByte(), 0xFF.toByte(), 0) + literals
+        assertArrayEquals(literals, decompress(compressed, 270))
+    }
+
+    @Test
+    fun `long match lengths are decoded`() {
+        // One literal, then a match at offset 1 of 4 + 15 + 255 + 0 = 274 bytes, then an empty last sequence.
+        val compressed = byteArrayOf(0x1F, 7, 1, 0, 0xFF.toByte(), 0, 0)
+        assertArrayEquals(ByteArray(275) { 7 }, decompress(compressed, 275))
+    }
+
+    @Test
+    fun `truncated input is rejected`() {
+        val input = ByteArray(1000) { (it % 10).toByte() } + Random(2).nextBytes(300)
+        val compressed = compress(input)
+        for (length in 0 until compressed.size) {
+            assertThrows<IOException> { decompress(compressed.copyOf(length), input.size) }
+        }
+    }
+
+    @Test
+    fun `wrong decompressed lengths are rejected`() {
+        val input = ByteArray(1000) { (it % 10).toByte() }
+        val compressed = compress(input)
+        assertThrows<IOException> { decompress(compressed, input.size - 1) }
+        assertThrows<IOException> { decompress(compressed, input.size + 1) }
+    }
+
+    @Test
+    fun `bad match offsets are rejected`() {
+        // Offset 0.
+        assertThrows<IOException> { decompress(byteArrayOf(0x10, 7, 0, 0, 0), 5) }
+        // Offset before the start of the output.
+        assertThrows<IOException> { decompress(byteArrayOf(0x10, 7, 2, 0, 0), 5) }
+    }
+
+    @Test
+    fun `lengths that would overflow are rejected`() {
+        // Enough extension bytes to take a length past Int.MAX_VALUE.
+        val extension = ByteArray(Int.MAX_VALUE / 255 + 2) { 0xFF.toByte() }
+        assertThrows<IOException> { decompress(byteArrayOf(0xF0.toByte()) + extension + byteArrayOf(0), 1) }
+        // The same for a match length, after a single literal.
+        assertThrows<IOException> { decompress(byteArrayOf(0x1F, 7, 1, 0) + extension + byteArrayOf(0), 2) }
+    }
+
+    @Test
+    fun `corrupt input is rejected`() {
+        val input = ByteArray(2000) { (it % 10).toByte() } + Random(3).nextBytes(500)
+        val compressed = compress(input)
+        val random = Random(4)
+        repeat(1000) {
+            val corrupt = compressed.copyOf()
+            corrupt[random.nextInt(corrupt.size)] = random.nextInt().toByte()
+            try {
+                decompress(corrupt, input.size)
+            } catch (e: IOException) {
+                // Corruption may go unnoticed, but must not surface as anything other than an IOException.
+            }
+        }
+    }
+
+    private companion object {
+        const val MIN_MATCH: Int = 4
+    }
+}
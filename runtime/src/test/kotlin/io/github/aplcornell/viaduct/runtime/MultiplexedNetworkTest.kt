@@ -0,0 +1,65 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import kotlin.reflect.typeOf
+
+internal class MultiplexedNetworkTest {
+    private val alice = Host("alice")
+    private val bob = Host("bob")
+    private val chuck = Host("chuck")
+
+    private val network = LoopbackNetwork(setOf(alice, bob, chuck))
+
+    private val aliceStreams = MultiplexedNetwork(network.strategy(alice))
+    private val bobStreams = MultiplexedNetwork(network.strategy(bob))
+
+    @Test
+    fun `messages on one stream arrive in order`() {
+        val stream = aliceStreams.stream(1)
+        for (i in 1..10) {
+            stream.send(i, bob)
+        }
+
+        val received = bobStreams.stream(1)
+        assertEquals((1..10).toList(), List(10) { received.receive<Int>(alice) })
+    }
+
+    @Test
+    fun `streams can be read in a different order than they were written`() {
+        aliceStreams.stream(1).send(1, bob)
+        aliceStreams.stream(2).send(intArrayOf(2, 2), bob)
+        aliceStreams.stream(1).send(11, bob)
+        aliceStreams.stream(3).send(true, bob)
+
+        assertEquals(true, bobStreams.stream(3).receive<Boolean>(alice))
+        assertArrayEquals(intArrayOf(2, 2), bobStreams.stream(2).receive<IntArray>(alice))
+        assertEquals(1, bobStreams.stream(1).receive<Int>(alice))
+        assertEquals(11, bobStreams.stream(1).receive<Int>(alice))
+    }
+
+    @Test
+    fun `streams from different senders are kept apart`() {
+        val chuckStreams = MultiplexedNetwork(network.strategy(chuck))
+        chuckStreams.stream(1).send(3, bob)
+        aliceStreams.stream(1).send(1, bob)
+        chuckStreams.stream(2).send(4, bob)
+
+        assertEquals(1, bobStreams.stream(1).receive<Int>(alice))
+        assertEquals(4, bobStreams.stream(2).receive<Int>(chuck))
+        assertEquals(3, bobStreams.stream(1).receive<Int>(chuck))
+    }
+
+    @Test
+    fun `broadcasts are tagged with their stream`() {
+        val chuckStreams = MultiplexedNetwork(network.strategy(chuck))
+        aliceStreams.stream(1).send(0, bob)
+        aliceStreams.stream(2).broadcast(typeOf<IntArray>(), intArrayOf(5), listOf(bob, chuck))
+
+        assertArrayEquals(intArrayOf(5), bobStreams.stream(2).receive<IntArray>(alice))
+        assertArrayEquals(intArrayOf(5), chuckStreams.stream(2).receive<IntArray>(alice))
+        assertEquals(0, bobStreams.stream(1).receive<Int>(alice))
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.junit.jupiter.api.assertThrows
+import java.io.DataOutputStream
+import java.net.ConnectException
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+@Timeout(value = 30, unit = TimeUnit.SECONDS)
+internal class NIONetworkStrategyTest {
+    private val alice = Host("alice")
+    private val bob = Host("bob")
+    private val chuck = Host("chuck")
+
+    private val hostAddresses = listOf(alice, bob, chuck).associateWith { localAddress() }
+
+    @Test
+    fun `hosts exchange messages`() {
+        val addresses = hostAddresses - chuck
+        val aliceStrategy = NIONetworkStrategy(alice, addresses)
+        val aliceThread = thread { aliceStrategy.start() }
+        NIONetworkStrategy(bob, addresses).use { bobStrategy ->
+            bobStrategy.start()
+            aliceThread.join()
+            aliceStrategy.use {
+                bobStrategy.send(42, alice)
+                bobStrategy.flush(alice)
+                assertEquals(42, aliceStrategy.receive<Int>(bob))
+            }
+        }
+    }
+
+    @Test
+    fun `a failed connection does not affect other hosts`() {
+        val aliceStrategy = NIONetworkStrategy(alice, hostAddresses)
+        val aliceThread = thread { aliceStrategy.start() }
+        aliceStrategy.use {
+            // Chuck speaks the protocol by hand so it can send alice a malformed frame.
+            connectRaw(hostAddresses.getValue(alice)).use { chuckSocket ->
+                DataOutputStream(chuckSocket.getOutputStream()).run {
+                    writeByte(2) // chuck's index among the sorted hosts
+                    writeByte(0) // decline compression
+                    flush()
+                }
+                NIONetworkStrategy(bob, hostAddresses - chuck).use { bobStrategy ->
+                    bobStrategy.start()
+                    aliceThread.join()
+
+                    DataOutputStream(chuckSocket.getOutputStream()).run {
+                        writeInt(-1)
+                        flush()
+                    }
+                    assertThrows<HostCommunicationException> { aliceStrategy.receive<Int>(chuck) }
+                    assertThrows<HostCommunicationException> { aliceStrategy.send(1, chuck) }
+
+                    bobStrategy.send(42, alice)
+                    bobStrategy.flush(alice)
+                    assertEquals(42, aliceStrategy.receive<Int>(bob))
+
+                    aliceStrategy.send(43, bob)
+                    aliceStrategy.flush(bob)
+                    assertEquals(43, bobStrategy.receive<Int>(alice))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `failing to connect is reported even while accepting connections`() {
+        // Bob connects to alice, who never starts, while waiting for chuck, who never connects.
+        val bobStrategy = NIONetworkStrategy(bob, hostAddresses, connectionTimeout = 200, connectionRetryDelay = 50)
+        assertThrows<HostConnectionException> { bobStrategy.start() }
+    }
+
+    /** Connects to [address], waiting for it to start listening. */
+    private fun connectRaw(address: InetSocketAddress): Socket {
+        while (true) {
+            try {
+                return Socket(address.hostString, address.port)
+            } catch (e: ConnectException) {
+                Thread.sleep(10)
+            }
+        }
+    }
+}
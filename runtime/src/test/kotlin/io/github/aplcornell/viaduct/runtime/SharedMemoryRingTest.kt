@@ -0,0 +1,122 @@
+package io.github.aplcornell.viaduct.runtime
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.junit.jupiter.api.assertThrows
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+internal class SharedMemoryRingTest {
+    private val directory: Path = Files.createTempDirectory("rings")
+
+    private val path: Path = directory.resolve("sender-receiver.ring")
+
+    private fun connect(capacity: Int): Pair<SharedMemoryRing, SharedMemoryRing> {
+        val consumer = SharedMemoryRing.create(path, capacity)
+        val producer = SharedMemoryRing.open(path, capacity)!!
+        assertFalse(producer.isAcknowledged)
+        assertTrue(consumer.acknowledge())
+        assertTrue(producer.isAcknowledged)
+        return producer to consumer
+    }
+
+    @Test
+    fun `there is nothing to open before the consumer creates the ring`() {
+        assertNull(SharedMemoryRing.open(path, 64))
+    }
+
+    @Test
+    fun `consumers only acknowledge once the producer has opened the ring`() {
+        val consumer = SharedMemoryRing.create(path, 64)
+        assertFalse(consumer.acknowledge())
+        consumer.close()
+    }
+
+    @Test
+    fun `rings left over from an earlier run are never acknowledged`() {
+        // A ring from a crashed run, which the producer finds first.
+        SharedMemoryRing.create(path, 64).close()
+        val staleProducer = SharedMemoryRing.open(path, 64)!!
+
+        val consumer = SharedMemoryRing.create(path, 64)
+        assertFalse(consumer.acknowledge())
+        assertFalse(staleProducer.isAcknowledged)
+        assertFalse(staleProducer.isCurrent(path))
+        staleProducer.close()
+
+        val producer = SharedMemoryRing.open(path, 64)!!
+        assertTrue(producer.isCurrent(path))
+        assertTrue(consumer.acknowledge())
+        assertTrue(producer.isAcknowledged)
+
+        producer.close()
+        consumer.close()
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    fun `bytes arrive in order across wrap-arounds`() {
+        val (producer, consumer) = connect(capacity = 64)
+        val data = ByteArray(100_000) { (it * 13).toByte() }
+        val writer = thread {
+            var offset = 0
+            while (offset < data.size) {
+                val length = minOf(37, data.size - offset)
+                producer.write(data, offset, length)
+                offset += length
+            }
+        }
+
+        val received = ByteArray(data.size)
+        consumer.read(received)
+        writer.join()
+        assertArrayEquals(data, received)
+
+        producer.close()
+        consumer.close()
+    }
+
+    @Test
+    fun `integers are read big-endian`() {
+        val (producer, consumer) = connect(capacity = 64)
+        producer.write(byteArrayOf(0x12, 0x34, 0x56, 0x78))
+        assertEquals(0x12345678, consumer.readInt())
+
+        producer.close()
+        consumer.close()
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    fun `readers fail once the producer goes away`() {
+        val (producer, consumer) = connect(capacity = 64)
+        producer.write(byteArrayOf(1, 2))
+        producer.close()
+
+        // Bytes written before closing can still be read.
+        val received = ByteArray(2)
+        consumer.read(received)
+        assertArrayEquals(byteArrayOf(1, 2), received)
+
+        assertThrows<IOException> { consumer.read(ByteArray(1)) }
+        consumer.close()
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    fun `writers fail once the consumer goes away`() {
+        val (producer, consumer) = connect(capacity = 64)
+        consumer.close()
+
+        assertThrows<IOException> { producer.write(ByteArray(1000)) }
+        producer.close()
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.aplcornell.viaduct.runtime
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+internal class SpscQueueTest {
+    @Test
+    fun `poll returns null when the queue is empty`() {
+        val queue = SpscQueue<Int>()
+        assertNull(queue.poll())
+
+        queue.offer(1)
+        queue.poll()
+        assertNull(queue.poll())
+    }
+
+    @Test
+    fun `elements come out in the order they went in`() {
+        val queue = SpscQueue<Int>()
+        (1..100).forEach { queue.offer(it) }
+
+        assertEquals((1..100).toList(), List(100) { queue.take() })
+        assertNull(queue.poll())
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    fun `elements offered by another thread arrive in order`() {
+        val count = 1_000_000
+        val queue = SpscQueue<Int>()
+        val producer = thread {
+            for (i in 0 until count) {
+                queue.offer(i)
+            }
+        }
+
+        for (i in 0 until count) {
+            assertEquals(i, queue.take())
+        }
+        producer.join()
+        assertNull(queue.poll())
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    fun `take waits for a parked consumer to be woken up`() {
+        val queue = SpscQueue<String>()
+        val taken = CountDownLatch(1)
+        var result: String? = null
+        val consumer = thread {
+            result = queue.take()
+            taken.countDown()
+        }
+
+        // Give the consumer time to stop spinning and park.
+        assertFalse(taken.await(200, TimeUnit.MILLISECONDS))
+        queue.offer("hello")
+        consumer.join()
+        assertEquals("hello", result)
+    }
+
+    @Test
+    @Timeout(value = 30, unit = TimeUnit.SECONDS)
+    fun `take can be interrupted`() {
+        val queue = SpscQueue<Int>()
+        var failure: Throwable? = null
+        val consumer = thread {
+            try {
+                queue.take()
+            } catch (e: InterruptedException) {
+                failure = e
+            }
+        }
+
+        Thread.sleep(200)
+        consumer.interrupt()
+        consumer.join()
+        assertTrue(failure is InterruptedException)
+    }
+}
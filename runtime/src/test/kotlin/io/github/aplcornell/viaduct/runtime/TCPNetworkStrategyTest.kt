@@ -0,0 +1,47 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.syntax.Host
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.junit.jupiter.api.assertThrows
+import java.net.InetSocketAddress
+import java.net.ServerSocket
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+@Timeout(value = 30, unit = TimeUnit.SECONDS)
+internal class TCPNetworkStrategyTest {
+    private val alice = Host("alice")
+    private val bob = Host("bob")
+    private val chuck = Host("chuck")
+
+    private val hostAddresses = listOf(alice, bob, chuck).associateWith { localAddress() }
+
+    @Test
+    fun `hosts exchange messages`() {
+        val addresses = hostAddresses - chuck
+        val aliceStrategy = TCPNetworkStrategy(alice, addresses)
+        val aliceThread = thread { aliceStrategy.start() }
+        TCPNetworkStrategy(bob, addresses).use { bobStrategy ->
+            bobStrategy.start()
+            aliceThread.join()
+            aliceStrategy.use {
+                bobStrategy.send(42, alice)
+                bobStrategy.flush(alice)
+                assertEquals(42, aliceStrategy.receive<Int>(bob))
+            }
+        }
+    }
+
+    @Test
+    fun `failing to connect is reported even while accepting connections`() {
+        // Bob connects to alice, who never starts, while waiting for chuck, who never connects.
+        val bobStrategy = TCPNetworkStrategy(bob, hostAddresses, connectionTimeout = 200, connectionRetryDelay = 50)
+        assertThrows<HostConnectionException> { bobStrategy.start() }
+    }
+}
+
+/** Returns a loopback address with a port that is currently free. */
+internal fun localAddress(): InetSocketAddress =
+    InetSocketAddress("localhost", ServerSocket(0).use { it.localPort })
@@ -0,0 +1,93 @@
+package io.github.aplcornell.viaduct.runtime
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.junit.jupiter.api.assertThrows
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@Timeout(value = 30, unit = TimeUnit.SECONDS)
+internal class TimerWheelTest {
+    private val tickNanos: Long = TimeUnit.MILLISECONDS.toNanos(1)
+
+    @Test
+    fun `tasks never run before their deadline`() {
+        val timer = TimerWheel(tickNanos, wheelSize = 8)
+        val lateness = Collections.synchronizedList(mutableListOf<Long>())
+        val start = System.nanoTime()
+        for (delay in listOf(0L, 1, 3, 7, 8, 9, 20, 50)) {
+            val deadline = start + delay * tickNanos
+            timer.schedule(deadline) { lateness += System.nanoTime() - deadline }
+        }
+        timer.close()
+
+        assertEquals(8, lateness.size)
+        assertTrue(lateness.all { it >= 0 }, "a task ran early")
+    }
+
+    @Test
+    fun `tasks due in the same tick run in the order they were scheduled`() {
+        val timer = TimerWheel(tickNanos)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val deadline = System.nanoTime() + 5 * tickNanos
+        for (i in 1..100) {
+            timer.schedule(deadline) { order += i }
+        }
+        timer.close()
+
+        assertEquals((1..100).toList(), order)
+    }
+
+    @Test
+    fun `tasks more than one turn of the wheel away wait for their turn`() {
+        val timer = TimerWheel(tickNanos, wheelSize = 4)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val start = System.nanoTime()
+        // All of these land in the same bucket.
+        timer.schedule(start + 13 * tickNanos) { order += 13 }
+        timer.schedule(start + 5 * tickNanos) { order += 5 }
+        timer.schedule(start + 9 * tickNanos) { order += 9 }
+        timer.close()
+
+        assertEquals(listOf(5, 9, 13), order)
+    }
+
+    @Test
+    fun `tasks scheduled after the timer has been idle still run`() {
+        val timer = TimerWheel(tickNanos, wheelSize = 4)
+        Thread.sleep(50)
+
+        val ran = CountDownLatch(1)
+        val deadline = System.nanoTime() + 2 * tickNanos
+        timer.schedule(deadline) { ran.countDown() }
+        assertTrue(ran.await(10, TimeUnit.SECONDS))
+        timer.close()
+    }
+
+    @Test
+    fun `closing an idle timer returns`() {
+        TimerWheel().close()
+    }
+
+    @Test
+    fun `failures are reported to the caller and do not stop other tasks`() {
+        val timer = TimerWheel(tickNanos)
+        val failure = IllegalStateException("boom")
+        val ran = CountDownLatch(1)
+        // Leave enough time to schedule both tasks before the first one fails.
+        val deadline = System.nanoTime() + 100 * tickNanos
+        timer.schedule(deadline) { throw failure }
+        timer.schedule(deadline + tickNanos) { ran.countDown() }
+        assertTrue(ran.await(10, TimeUnit.SECONDS))
+
+        val scheduleFailure = assertThrows<TimerTaskException> { timer.schedule(deadline) {} }
+        assertSame(failure, scheduleFailure.cause)
+
+        val closeFailure = assertThrows<TimerTaskException> { timer.close() }
+        assertSame(failure, closeFailure.cause)
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.aplcornell.viaduct.runtime
+
+import io.github.aplcornell.viaduct.runtime.commitment.Commitment
+import io.github.aplcornell.viaduct.runtime.commitment.Committed
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.IOException
+import java.nio.ByteBuffer
+import kotlin.reflect.typeOf
+
+internal class WireCodecsTest {
+    @Test
+    fun `integers round trip`() {
+        for (value in listOf(0, 1, -1, 42, Int.MAX_VALUE, Int.MIN_VALUE)) {
+            assertEquals(value, roundTrip(value))
+        }
+    }
+
+    @Test
+    fun `booleans round trip`() {
+        assertEquals(true, roundTrip(true))
+        assertEquals(false, roundTrip(false))
+    }
+
+    @Test
+    fun `unit round trips`() {
+        assertEquals(Unit, roundTrip(Unit))
+    }
+
+    @Test
+    fun `byte arrays round trip`() {
+        assertArrayEquals(byteArrayOf(), roundTrip(byteArrayOf()))
+        assertArrayEquals(byteArrayOf(0, -1, 127, -128), roundTrip(byteArrayOf(0, -1, 127, -128)))
+    }
+
+    @Test
+    fun `int arrays round trip`() {
+        assertArrayEquals(intArrayOf(), roundTrip(intArrayOf()))
+        val extremes = intArrayOf(1, -2, Int.MIN_VALUE, Int.MAX_VALUE)
+        assertArrayEquals(extremes, roundTrip(extremes))
+        val large = IntArray(10_000) { it * 31 }
+        assertArrayEquals(large, roundTrip(large))
+    }
+
+    @Test
+    fun `boolean arrays round trip`() {
+        assertArrayEquals(booleanArrayOf(), roundTrip(booleanArrayOf()))
+        assertArrayEquals(booleanArrayOf(true, false, true), roundTrip(booleanArrayOf(true, false, true)))
+    }
+
+    @Test
+    fun `boxed arrays round trip`() {
+        assertArrayEquals(arrayOf<Int>(), roundTrip(arrayOf<Int>()))
+        assertArrayEquals(arrayOf(3, -4, 5), roundTrip(arrayOf(3, -4, 5)))
+        assertArrayEquals(arrayOf(false, true), roundTrip(arrayOf(false, true)))
+    }
+
+    @Test
+    fun `commitments round trip`() {
+        val hash = ByteArray(32) { it.toByte() }
+        assertArrayEquals(hash, roundTrip(Commitment<Int>(hash)).hash)
+    }
+
+    @Test
+    fun `committed values round trip`() {
+        val nonce = ByteArray(Committed.NONCE_LENGTH) { (it * 7).toByte() }
+
+        val committedInt = roundTrip(Committed(-17, nonce))
+        assertEquals(-17, committedInt.value)
+        assertArrayEquals(nonce, committedInt.nonce)
+
+        val committedArray = roundTrip(Committed(intArrayOf(1, 2, 3), nonce))
+        assertArrayEquals(intArrayOf(1, 2, 3), committedArray.value)
+        assertArrayEquals(nonce, committedArray.nonce)
+    }
+
+    @Test
+    fun `types without a dedicated codec round trip through ProtoBuf`() {
+        assertEquals("", roundTrip(""))
+        assertEquals("héllo wörld", roundTrip("héllo wörld"))
+        assertEquals(listOf(1, 2, 3), roundTrip(listOf(1, 2, 3)))
+    }
+
+    @Test
+    fun `codecs consume exactly their own bytes`() {
+        val buffer = FrameBuffer()
+        val start = buffer.beginFrame()
+        codec<Int>().encode(7, buffer)
+        codec<IntArray>().encode(intArrayOf(8, 9), buffer)
+        codec<Boolean>().encode(true, buffer)
+        codec<ByteArray>().encode(byteArrayOf(10), buffer)
+        codec<Array<Boolean>>().encode(arrayOf(false), buffer)
+        buffer.endFrame(start)
+
+        val input = ByteBuffer.wrap(buffer.array(), 0, buffer.size)
+        assertEquals(buffer.size - FrameBuffer.HEADER_SIZE, input.getInt())
+        assertEquals(7, codec<Int>().decode(input))
+        assertArrayEquals(intArrayOf(8, 9), codec<IntArray>().decode(input))
+        assertEquals(true, codec<Boolean>().decode(input))
+        assertArrayEquals(byteArrayOf(10), codec<ByteArray>().decode(input))
+        assertArrayEquals(arrayOf(false), codec<Array<Boolean>>().decode(input))
+        assertEquals(0, input.remaining())
+    }
+
+    @Test
+    fun `array lengths are checked before allocating`() {
+        for (length in listOf(-1, Int.MIN_VALUE, Int.MAX_VALUE, 3)) {
+            assertInvalidLength<ByteArray>(length)
+            assertInvalidLength<IntArray>(length)
+            assertInvalidLength<BooleanArray>(length)
+            assertInvalidLength<Array<Int>>(length)
+            assertInvalidLength<Array<Boolean>>(length)
+            assertInvalidLength<Commitment<Int>>(length)
+        }
+    }
+
+    @Test
+    fun `codecs are cached per type`() {
+        assertSame(codec<IntArray>(), codec<IntArray>())
+    }
+}
+
+private inline fun <reified T> codec(): WireCodec<T> =
+    wireCodecFor(typeOf<T>())
+
+/** Checks that decoding fails cleanly on an array claiming [length] elements when only two bytes follow. */
+private inline fun <reified T> assertInvalidLength(length: Int) {
+    val input = ByteBuffer.allocate(Int.SIZE_BYTES + 2).putInt(length).put(1).put(0).flip()
+    assertThrows<IOException>("${typeOf<T>()} with length $length") { codec<T>().decode(input) }
+}
+
+/** Encodes [value] as a single frame, checks the framing, and decodes the payload. */
+private inline fun <reified T> roundTrip(value: T): T {
+    val codec = codec<T>()
+
+    // Start small so encoding has to grow the buffer.
+    val buffer = FrameBuffer(initialCapacity = 1)
+    val start = buffer.beginFrame()
+    codec.encode(value, buffer)
+    buffer.endFrame(start)
+
+    val input = ByteBuffer.wrap(buffer.array(), 0, buffer.size)
+    assertEquals(buffer.size - FrameBuffer.HEADER_SIZE, input.getInt())
+    val decoded = codec.decode(input)
+    assertEquals(0, input.remaining(), "decoding left bytes unread")
+    return decoded
+}
@@ -0,0 +1,92 @@
+package io.github.aplcornell.viaduct.runtime.aby
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+internal class SecretIndexTest {
+    /** Evaluates the gates on plain 32-bit values, reading selectors from their lowest bit as ABY does. */
+    private object PlaintextGates : IndexGates<Int> {
+        override fun constant(value: Int): Int = value
+
+        override fun equalTo(left: Int, right: Int): Int = if (left == right) 1 else 0
+
+        override fun greaterThan(left: Int, right: Int): Int = if (left.toUInt() > right.toUInt()) 1 else 0
+
+        override fun and(left: Int, right: Int): Int = left and right
+
+        override fun bit(share: Int, bit: Int): Int = (share ushr bit) and 1
+
+        override fun notBit(share: Int, bit: Int): Int = bit(share, bit) xor 1
+
+        override fun select(condition: Int, ifTrue: Int, ifFalse: Int): Int =
+            if (condition and 1 == 1) ifTrue else ifFalse
+    }
+
+    private val sizes = listOf(7, 8, 9)
+
+    private fun indices(size: Int): List<Int> =
+        (0 until size) + listOf(size, size + 1, 2 * size, 16, 100, -1, Int.MIN_VALUE, Int.MAX_VALUE)
+
+    private fun vector(size: Int): Array<Int> =
+        Array(size) { 10 * (it + 1) }
+
+    private fun assertQueries(query: IndexGates<Int>.(Int, Array<Int>) -> Int) {
+        for (size in sizes) {
+            val vector = vector(size)
+            for (index in indices(size)) {
+                val expected = vector.getOrElse(index) { 0 }
+                assertEquals(expected, PlaintextGates.query(index, vector), "size $size, index $index")
+            }
+        }
+    }
+
+    private fun assertUpdates(update: IndexGates<Int>.(Array<Int>, Int, (Int) -> Int) -> Unit) {
+        val operations = listOf<(Int) -> Int>({ 7 }, { it + 1 }, { -it })
+        for (size in sizes) {
+            for (index in indices(size)) {
+                for (operation in operations) {
+                    val expected = vector(size).also { if (index in it.indices) it[index] = operation(it[index]) }
+                    val actual = vector(size).also { PlaintextGates.update(it, index, operation) }
+                    assertArrayEquals(expected, actual, "size $size, index $index")
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `linear queries read the element at the index or zero`() {
+        assertQueries { index, vector -> linearQuery(index, vector) }
+    }
+
+    @Test
+    fun `tree queries read the element at the index or zero`() {
+        assertQueries { index, vector -> treeQuery(index, vector) }
+    }
+
+    @Test
+    fun `oblivious queries read the element at the index or zero`() {
+        assertQueries { index, vector -> obliviousQuery(index, vector) }
+    }
+
+    @Test
+    fun `linear updates only change the element at the index`() {
+        assertUpdates { vector, index, operation -> linearUpdate(vector, index, operation) }
+    }
+
+    @Test
+    fun `decoded updates only change the element at the index`() {
+        assertUpdates { vector, index, operation -> decodedUpdate(vector, index, operation) }
+    }
+
+    @Test
+    fun `oblivious updates only change the element at the index`() {
+        assertUpdates { vector, index, operation -> obliviousUpdate(vector, index, operation) }
+    }
+
+    @Test
+    fun `queries on empty vectors read zero`() {
+        assertEquals(0, PlaintextGates.linearQuery(0, arrayOf()))
+        assertEquals(0, PlaintextGates.treeQuery(0, arrayOf()))
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.aplcornell.viaduct.runtime.commitment
+
+import io.github.aplcornell.viaduct.runtime.commitment.Committed.Companion.commitment
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+internal class BatchOpenTest {
+    private val secret = Committed(42)
+
+    @Test
+    fun `matching commitments open to the committed value`() {
+        assertEquals(42, openAll(secret, secret.commitment()))
+        assertEquals(42, openAll(secret, secret.commitment(), secret.commitment(), secret.commitment()))
+    }
+
+    @Test
+    fun `a single mismatching commitment is rejected`() {
+        val other = Committed(42).commitment()
+        assertThrows<InvalidCommitmentException> { openAll(secret, secret.commitment(), other) }
+        assertThrows<InvalidCommitmentException> { openAll(secret, other, secret.commitment()) }
+    }
+
+    @Test
+    fun `secrets with malformed nonces are rejected`() {
+        val forged = Committed(42, ByteArray(1))
+        assertThrows<InvalidCommitmentException> { openAll(forged, forged.commitment()) }
+    }
+}
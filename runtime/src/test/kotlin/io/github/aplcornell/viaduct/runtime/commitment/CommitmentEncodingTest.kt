@@ -0,0 +1,106 @@
+package io.github.aplcornell.viaduct.runtime.commitment
+
+import io.github.aplcornell.viaduct.runtime.commitment.Committed.Companion.commitment
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.encodeToByteArray
+import kotlinx.serialization.protobuf.ProtoBuf
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.security.MessageDigest
+
+@OptIn(ExperimentalSerializationApi::class)
+internal class CommitmentEncodingTest {
+    /** A digest that records the bytes it is given instead of hashing them. */
+    private class RecordingDigest : MessageDigest("recording") {
+        private val bytes = ByteArrayOutputStream()
+
+        override fun engineUpdate(input: Byte) {
+            bytes.write(input.toInt())
+        }
+
+        override fun engineUpdate(input: ByteArray, offset: Int, len: Int) {
+            bytes.write(input, offset, len)
+        }
+
+        override fun engineDigest(): ByteArray =
+            bytes.toByteArray().also { bytes.reset() }
+
+        override fun engineReset() {
+            bytes.reset()
+        }
+    }
+
+    private inline fun <reified T> assertMatchesProtoBuf(value: T) {
+        val digest = RecordingDigest()
+        assertTrue(CommitmentEncoding.update(digest, value))
+        assertArrayEquals(ProtoBuf.encodeToByteArray(value), digest.digest())
+    }
+
+    @Test
+    fun `integers match ProtoBuf`() {
+        for (value in listOf(0, 1, 127, 128, 300, Int.MAX_VALUE, -1, -128, Int.MIN_VALUE)) {
+            assertMatchesProtoBuf(value)
+        }
+    }
+
+    @Test
+    fun `booleans match ProtoBuf`() {
+        assertMatchesProtoBuf(false)
+        assertMatchesProtoBuf(true)
+    }
+
+    @Test
+    fun `strings match ProtoBuf`() {
+        assertMatchesProtoBuf("")
+        assertMatchesProtoBuf("viaduct")
+        assertMatchesProtoBuf("héllo wörld ∀x. λ 😀")
+        assertMatchesProtoBuf("x".repeat(200))
+    }
+
+    @Test
+    fun `primitive arrays match ProtoBuf`() {
+        assertMatchesProtoBuf(intArrayOf())
+        assertMatchesProtoBuf(intArrayOf(0, 1, -1, 300, Int.MIN_VALUE, Int.MAX_VALUE))
+        assertMatchesProtoBuf(IntArray(200) { it })
+        assertMatchesProtoBuf(booleanArrayOf())
+        assertMatchesProtoBuf(booleanArrayOf(true, false, true))
+    }
+
+    @Test
+    fun `boxed arrays match ProtoBuf`() {
+        assertMatchesProtoBuf(arrayOf<Int>())
+        assertMatchesProtoBuf(arrayOf(0, 1, -1, 300, Int.MIN_VALUE))
+        assertMatchesProtoBuf(arrayOf(true, false))
+        assertMatchesProtoBuf(arrayOf("", "a", "é"))
+    }
+
+    @Test
+    fun `nested arrays match ProtoBuf`() {
+        assertMatchesProtoBuf(arrayOf(intArrayOf(1, 2), intArrayOf(), intArrayOf(-3)))
+        assertMatchesProtoBuf(arrayOf(arrayOf(1, 2), arrayOf<Int>(), arrayOf(-3)))
+        assertMatchesProtoBuf(arrayOf(arrayOf(intArrayOf(1)), arrayOf<IntArray>()))
+        assertMatchesProtoBuf(arrayOf<IntArray>())
+    }
+
+    @Test
+    fun `unsupported types are left to the caller`() {
+        assertFalse(CommitmentEncoding.update(RecordingDigest(), 1L))
+        assertFalse(CommitmentEncoding.update(RecordingDigest(), listOf(1)))
+        assertFalse(CommitmentEncoding.update(RecordingDigest(), arrayOf<Any>(1, 2L)))
+    }
+
+    @Test
+    fun `commitment hashes cover the encoding and the nonce`() {
+        val value = arrayOf(intArrayOf(1, -2), intArrayOf(3))
+        val nonce = ByteArray(Committed.NONCE_LENGTH) { it.toByte() }
+        val expected = MessageDigest.getInstance("SHA-256").run {
+            update(ProtoBuf.encodeToByteArray(value))
+            update(nonce)
+            digest()
+        }
+        assertArrayEquals(expected, Committed(value, nonce).commitment().hash)
+    }
+}
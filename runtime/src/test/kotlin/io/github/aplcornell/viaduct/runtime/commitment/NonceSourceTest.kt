@@ -0,0 +1,125 @@
+package io.github.aplcornell.viaduct.runtime.commitment
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Test
+import java.security.SecureRandom
+import java.util.Collections
+import kotlin.concurrent.thread
+
+internal class NonceSourceTest {
+    /** A deterministic entropy source that counts how often it is drawn from. */
+    private class CountingEntropySource : SecureRandom() {
+        var draws: Int = 0
+            private set
+
+        @Synchronized
+        override fun nextBytes(bytes: ByteArray) {
+            draws++
+            bytes.fill(draws.toByte())
+        }
+    }
+
+    private fun String.hexToBytes(): ByteArray =
+        chunked(2).map { it.toInt(16).toByte() }.toByteArray()
+
+    /** Instantiates with [entropy] and [nonce], generates [expected]'s length in bytes twice, and checks the second output. */
+    private fun assertKnownAnswer(entropy: String, nonce: String, expected: String) {
+        val drbg = HmacDrbg((entropy + nonce).hexToBytes())
+        val output = ByteArray(expected.length / 2)
+        drbg.generate(output)
+        drbg.generate(output)
+        assertArrayEquals(expected.hexToBytes(), output)
+    }
+
+    @Test
+    fun `HMAC-DRBG matches the NIST known answers`() {
+        // From the CAVP HMAC_DRBG test vectors: SHA-256, no prediction resistance,
+        // no reseed, personalization string or additional input, 1024 returned bits.
+        assertKnownAnswer(
+            "ca851911349384bffe89de1cbdc46e6831e44d34a4fb935ee285dd14b71a7488",
+            "659ba96c601dc69fc902940805ec0ca8",
+            "e528e9abf2dece54d47c7e75e5fe302149f817ea9fb4bee6f4199697d04d5b89" +
+                "d54fbb978a15b5c443c9ec21036d2460b6f73ebad0dc2aba6e624abf07745bc1" +
+                "07694bb7547bb0995f70de25d6b29e2d3011bb19d27676c07162c8b5ccde0668" +
+                "961df86803482cb37ed6d5c0bb8d50cf1f50d476aa0458bdaba806f48be9dcb8",
+        )
+        assertKnownAnswer(
+            "79737479ba4e7642a221fcfd1b820b134e9e3540a35bb48ffae29c20f5418ea3",
+            "3593259c092bef4129bc2c6c9e19f343",
+            "cf5ad5984f9e43917aa9087380dac46e410ddc8a7731859c84e9d0f31bd43655" +
+                "b924159413e2293b17610f211e09f770f172b8fb693a35b85d3b9e5e63b1dc25" +
+                "2ac0e115002e9bedfb4b5b6fd43f33b8e0eafb2d072e1a6fee1f159df9b51e6c" +
+                "8da737e60d5032dd30544ec51558c6f080bdbdab1de8a939e961e06b5f1aca37",
+        )
+    }
+
+    @Test
+    fun `outputs that are not a multiple of the block size are prefixes of longer outputs`() {
+        val seed = ByteArray(48) { it.toByte() }
+        val long = ByteArray(100).also { HmacDrbg(seed).generate(it) }
+        for (length in listOf(0, 1, 31, 32, 33, 65)) {
+            val short = ByteArray(length).also { HmacDrbg(seed).generate(it) }
+            assertArrayEquals(long.copyOf(length), short)
+        }
+    }
+
+    @Test
+    fun `consecutive nonces differ`() {
+        val source = DrbgNonceSource(CountingEntropySource())
+        val nonces = List(100) { source.nextBytes(16).toList() }
+        assertEquals(nonces.size, nonces.toSet().size)
+    }
+
+    @Test
+    fun `generators are reseeded after the reseed interval`() {
+        val entropy = CountingEntropySource()
+        val source = DrbgNonceSource(entropy, reseedInterval = 10)
+        repeat(10) { source.nextBytes(16) }
+        assertEquals(1, entropy.draws)
+        source.nextBytes(16)
+        assertEquals(2, entropy.draws)
+        repeat(9) { source.nextBytes(16) }
+        assertEquals(2, entropy.draws)
+        source.nextBytes(16)
+        assertEquals(3, entropy.draws)
+    }
+
+    @Test
+    fun `reseeding changes the output`() {
+        val seed = ByteArray(48)
+        val reseeded = HmacDrbg(seed).apply { reseed(ByteArray(48) { 1 }) }
+        val output = ByteArray(32).also { HmacDrbg(seed).generate(it) }
+        assertFalse(output.contentEquals(ByteArray(32).also { reseeded.generate(it) }))
+    }
+
+    @Test
+    fun `each thread has its own generator`() {
+        val entropy = CountingEntropySource()
+        val source = DrbgNonceSource(entropy)
+        val nonces = Collections.synchronizedList(mutableListOf<List<Byte>>())
+        val threads = List(4) {
+            thread {
+                repeat(100) { nonces += source.nextBytes(16).toList() }
+            }
+        }
+        threads.forEach { it.join() }
+
+        assertEquals(4, entropy.draws)
+        assertEquals(nonces.size, nonces.toSet().size)
+    }
+
+    @Test
+    fun `the default source can be replaced`() {
+        val original = NonceSource.default
+        try {
+            NonceSource.default = NonceSource { it.fill(7) }
+            assertArrayEquals(ByteArray(4) { 7 }, NonceSource.default.nextBytes(4))
+        } finally {
+            NonceSource.default = original
+        }
+        assertNotEquals(ByteArray(16).toList(), NonceSource.default.nextBytes(16).toList())
+    }
+}